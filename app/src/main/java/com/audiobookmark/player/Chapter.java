@@ -0,0 +1,48 @@
+package com.audiobookmark.player;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * One chapter marker written into an exported audio file. Times are in
+ * milliseconds, end exclusive.
+ */
+public class Chapter {
+
+    public final int startMs;
+    public final int endMs;
+    public final String title;
+
+    public Chapter(int startMs, int endMs, String title) {
+        this.startMs = startMs;
+        this.endMs = endMs;
+        this.title = title;
+    }
+
+    /**
+     * Turn bookmarks (any order, duplicates allowed) into back-to-back chapters
+     * covering the whole file. Each bookmark starts a chapter titled with its
+     * time; if the first bookmark isn't at 0 a "Start" chapter covers the gap.
+     */
+    public static List<Chapter> fromBookmarks(List<Integer> bookmarks, int durationMs) {
+        TreeSet<Integer> starts = new TreeSet<>();
+        starts.add(0);
+        for (int bookmark : bookmarks) {
+            if (bookmark >= 0 && bookmark < durationMs) {
+                starts.add(bookmark);
+            }
+        }
+
+        List<Chapter> chapters = new ArrayList<>(starts.size());
+        Integer start = starts.first();
+        while (start != null) {
+            Integer next = starts.higher(start);
+            int end = (next != null) ? next : durationMs;
+            String title = (start == 0 && !bookmarks.contains(0)) ? "Start" : TimeFormat.format(start);
+            chapters.add(new Chapter(start, end, title));
+            start = next;
+        }
+        return chapters;
+    }
+}
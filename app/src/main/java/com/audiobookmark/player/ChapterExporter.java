@@ -0,0 +1,192 @@
+package com.audiobookmark.player;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.media.MediaScannerConnection;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+import android.webkit.MimeTypeMap;
+import androidx.annotation.RequiresApi;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes a copy of the current audio file with the bookmarks embedded as
+ * chapters: ID3v2 CHAP/CTOC for MP3, a chapter text track for M4A/M4B.
+ *
+ * The copy goes to Music/Chapters, where other players and file managers can
+ * see it, and only appears under its final name once fully written. On
+ * Android 10+ that is a pending MediaStore entry published at the end; older
+ * versions write a hidden temp file next to it and rename it into place
+ * (needs WRITE_EXTERNAL_STORAGE).
+ */
+public class ChapterExporter {
+
+    static final String EXPORT_FOLDER = "Chapters";
+    private static final int SNIFF_BYTES = 12;
+
+    private ChapterExporter() {}
+
+    /** True for M4A/M4B, false for MP3; throws for formats that can't hold chapters. */
+    private static boolean isMp4(Context context, Uri source) throws IOException {
+        try (FileInputStream input = openForReading(context, source);
+             FileChannel in = input.getChannel()) {
+            return sniff(in);
+        }
+    }
+
+    /**
+     * Write the copy into Music/Chapters through MediaStore.
+     *
+     * @param displayName original file name including extension, used to name the copy
+     * @return where the copy was saved, relative to shared storage
+     */
+    @RequiresApi(Build.VERSION_CODES.Q)
+    public static String exportToMusic(Context context, Uri source, String displayName,
+                                       List<Integer> bookmarks, int durationMs) throws IOException {
+        List<Chapter> chapters = chapters(bookmarks, durationMs);
+        boolean mp4 = isMp4(context, source);
+        String name = exportName(displayName, mp4);
+        String folder = Environment.DIRECTORY_MUSIC + "/" + EXPORT_FOLDER;
+
+        ContentResolver resolver = context.getContentResolver();
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.MediaColumns.DISPLAY_NAME, name);
+        values.put(MediaStore.MediaColumns.MIME_TYPE, mimeType(name, mp4));
+        values.put(MediaStore.MediaColumns.RELATIVE_PATH, folder);
+        values.put(MediaStore.MediaColumns.IS_PENDING, 1);
+        Uri target = resolver.insert(
+                MediaStore.Audio.Media.getContentUri(MediaStore.VOLUME_EXTERNAL_PRIMARY), values);
+        if (target == null) throw new IOException("Cannot create " + folder + "/" + name);
+
+        boolean done = false;
+        try {
+            ParcelFileDescriptor targetFd = resolver.openFileDescriptor(target, "w");
+            if (targetFd == null) throw new IOException("Cannot open " + target);
+            write(context, source, new ParcelFileDescriptor.AutoCloseOutputStream(targetFd), mp4, chapters);
+            values.clear();
+            values.put(MediaStore.MediaColumns.IS_PENDING, 0);
+            resolver.update(target, values, null, null);
+            done = true;
+            // MediaStore renames on collision, so report the name it settled on
+            return folder + "/" + savedName(resolver, target, name);
+        } finally {
+            if (!done) {
+                resolver.delete(target, null, null);
+            }
+        }
+    }
+
+    /**
+     * Write the copy into Music/Chapters on shared storage, for devices before
+     * Android 10. The caller must hold WRITE_EXTERNAL_STORAGE.
+     *
+     * @return path of the exported file
+     */
+    @SuppressWarnings("deprecation") // getExternalStoragePublicDirectory is only deprecated from Android 10
+    public static String exportToMusicFolder(Context context, Uri source, String displayName,
+                                             List<Integer> bookmarks, int durationMs) throws IOException {
+        List<Chapter> chapters = chapters(bookmarks, durationMs);
+        boolean mp4 = isMp4(context, source);
+
+        File folder = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MUSIC),
+                EXPORT_FOLDER);
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Cannot create " + folder);
+        }
+        File target = new File(folder, exportName(displayName, mp4));
+        File temp = new File(folder, "." + target.getName() + ".tmp");
+
+        boolean done = false;
+        try {
+            write(context, source, new FileOutputStream(temp), mp4, chapters);
+            if (!temp.renameTo(target)) {
+                throw new IOException("Could not move export into place: " + target);
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                temp.delete();
+            }
+        }
+
+        MediaScannerConnection.scanFile(context, new String[]{target.getPath()},
+                new String[]{mimeType(target.getName(), mp4)}, null);
+        return target.getPath();
+    }
+
+    private static List<Chapter> chapters(List<Integer> bookmarks, int durationMs) throws IOException {
+        if (durationMs <= 0) throw new IOException("Unknown duration");
+        return Chapter.fromBookmarks(bookmarks, durationMs);
+    }
+
+    /** Write the chapters and audio into output, closing it when done. */
+    private static void write(Context context, Uri source, FileOutputStream destination, boolean mp4,
+                              List<Chapter> chapters) throws IOException {
+        try (FileOutputStream output = destination;
+             FileInputStream input = openForReading(context, source);
+             FileChannel in = input.getChannel();
+             FileChannel out = output.getChannel()) {
+            if (mp4) {
+                Mp4ChapterWriter.write(in, out, chapters);
+            } else {
+                Id3ChapterWriter.write(in, out, chapters);
+            }
+            out.force(true);
+        }
+    }
+
+    private static FileInputStream openForReading(Context context, Uri source) throws IOException {
+        ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(source, "r");
+        if (pfd == null) throw new IOException("Cannot open " + source);
+        return new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+    }
+
+    private static boolean sniff(FileChannel in) throws IOException {
+        byte[] head = FileChannels.readFully(in, 0, (int) Math.min(SNIFF_BYTES, in.size()));
+        if (Mp4ChapterWriter.isMp4(head)) return true;
+        if (Id3ChapterWriter.isMp3(head)) return false;
+        throw new IOException("Only MP3 and M4A/M4B files can hold chapters");
+    }
+
+    private static String savedName(ContentResolver resolver, Uri uri, String fallback) {
+        try (Cursor cursor = resolver.query(uri,
+                new String[]{MediaStore.MediaColumns.DISPLAY_NAME}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getString(0);
+            }
+        }
+        return fallback;
+    }
+
+    private static String mimeType(String name, boolean mp4) {
+        String extension = name.substring(name.lastIndexOf('.') + 1);
+        String mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+        if (mimeType != null) return mimeType;
+        return mp4 ? "audio/mp4" : "audio/mpeg";
+    }
+
+    static String exportName(String displayName, boolean mp4) {
+        String base = displayName;
+        String extension = mp4 ? "m4a" : "mp3";
+        int dotIndex = displayName.lastIndexOf('.');
+        if (dotIndex > 0) {
+            base = displayName.substring(0, dotIndex);
+            String original = displayName.substring(dotIndex + 1).toLowerCase(Locale.US);
+            if (mp4 && (original.equals("m4b") || original.equals("mp4"))) {
+                extension = original;
+            }
+        }
+        return base + " (chapters)." + extension;
+    }
+}
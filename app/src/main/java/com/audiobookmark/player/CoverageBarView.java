@@ -0,0 +1,58 @@
+package com.audiobookmark.player;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+import androidx.core.content.ContextCompat;
+import java.util.Map;
+
+/**
+ * Thin strip drawn under the seek bar showing which parts of the book have
+ * been heard.
+ */
+public class CoverageBarView extends View {
+
+    private final Paint trackPaint = new Paint();
+    private final Paint heardPaint = new Paint();
+
+    private ListeningCoverage coverage;
+    private int durationMs;
+
+    public CoverageBarView(Context context) {
+        this(context, null);
+    }
+
+    public CoverageBarView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        trackPaint.setColor(ContextCompat.getColor(context, R.color.seekBarTrack));
+        heardPaint.setColor(ContextCompat.getColor(context, R.color.coverageHeard));
+    }
+
+    public void setCoverage(ListeningCoverage coverage, int durationMs) {
+        this.coverage = coverage;
+        this.durationMs = durationMs;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        float left = getPaddingLeft();
+        float right = getWidth() - getPaddingRight();
+        float top = getPaddingTop();
+        float bottom = getHeight() - getPaddingBottom();
+        canvas.drawRect(left, top, right, bottom, trackPaint);
+
+        if (coverage == null || durationMs <= 0) return;
+
+        float scale = (right - left) / durationMs;
+        for (Map.Entry<Integer, Integer> interval : coverage.getIntervals().entrySet()) {
+            float start = left + interval.getKey() * scale;
+            float end = Math.min(right, left + interval.getValue() * scale);
+            // Keep very short ranges visible as at least one pixel
+            canvas.drawRect(start, top, Math.max(end, start + 1), bottom, heardPaint);
+        }
+    }
+}
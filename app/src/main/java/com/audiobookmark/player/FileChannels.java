@@ -0,0 +1,61 @@
+package com.audiobookmark.player;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Small FileChannel helpers for the chapter writers. Copies go channel to
+ * channel so the kernel moves the audio payload without it passing through
+ * the Java heap.
+ */
+final class FileChannels {
+
+    private static final int COPY_CHUNK_BYTES = 64 * 1024;
+
+    private FileChannels() {}
+
+    /** Copy [position, position + count) of in to the current position of out. */
+    static void transferFully(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        ByteBuffer chunk = null;
+        while (count > 0) {
+            long sent = in.transferTo(position, count, out);
+            if (sent <= 0) {
+                // Some providers' descriptors don't support transferTo; copy a chunk by hand
+                if (chunk == null) {
+                    chunk = ByteBuffer.allocateDirect(COPY_CHUNK_BYTES);
+                }
+                chunk.clear();
+                chunk.limit((int) Math.min(count, COPY_CHUNK_BYTES));
+                int read = in.read(chunk, position);
+                if (read < 0) throw new EOFException("Source ended early");
+                chunk.flip();
+                writeFully(out, chunk);
+                sent = read;
+            }
+            position += sent;
+            count -= sent;
+        }
+    }
+
+    static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    static void writeFully(FileChannel out, byte[] bytes) throws IOException {
+        writeFully(out, ByteBuffer.wrap(bytes));
+    }
+
+    /** Read exactly length bytes at position, without moving the channel position. */
+    static byte[] readFully(FileChannel in, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int read = in.read(buffer, position + buffer.position());
+            if (read < 0) throw new EOFException("Unexpected end of file");
+        }
+        return buffer.array();
+    }
+}
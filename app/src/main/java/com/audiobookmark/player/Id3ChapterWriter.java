@@ -0,0 +1,220 @@
+package com.audiobookmark.player;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes chapters into an MP3 as ID3v2 CHAP frames plus a CTOC table of
+ * contents (ID3v2 Chapter Frame Addendum).
+ *
+ * Only the ID3 tag is rebuilt in memory: existing frames are kept as-is
+ * except old CHAP/CTOC frames, and everything after the old tag is copied
+ * channel to channel.
+ */
+final class Id3ChapterWriter {
+
+    private static final int HEADER_SIZE = 10;
+    private static final int MAX_TOC_ENTRIES = 255; // CTOC entry count is one byte
+    private static final int NO_OFFSET = 0xFFFFFFFF;
+    private static final int MAX_TAG_SIZE = 1 << 28; // largest syncsafe size
+    private static final Charset LATIN_1 = StandardCharsets.ISO_8859_1;
+    private static final Charset UTF_16 = StandardCharsets.UTF_16; // with BOM
+
+    private Id3ChapterWriter() {}
+
+    static boolean isMp3(byte[] head) {
+        if (head.length >= 3 && head[0] == 'I' && head[1] == 'D' && head[2] == '3') return true;
+        // Bare MPEG audio frame sync; layer bits 00 are ADTS AAC, not MP3
+        return head.length >= 2 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xE0) == 0xE0
+                && (head[1] & 0x06) != 0;
+    }
+
+    static void write(FileChannel in, FileChannel out, List<Chapter> chapters) throws IOException {
+        int version = 3; // new tags are v2.3, the most widely read
+        long audioStart = 0;
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+
+        byte[] header = (in.size() >= HEADER_SIZE) ? FileChannels.readFully(in, 0, HEADER_SIZE) : new byte[0];
+        if (header.length == HEADER_SIZE && header[0] == 'I' && header[1] == 'D' && header[2] == '3') {
+            version = header[3];
+            int flags = header[5] & 0xFF;
+            int tagSize = readSyncsafe(header, 6);
+            if (version != 3 && version != 4) {
+                throw new IOException("Unsupported ID3v2." + version + " tag");
+            }
+            if ((flags & 0x80) != 0) {
+                throw new IOException("Unsynchronised ID3 tags are not supported");
+            }
+            audioStart = HEADER_SIZE + tagSize + (((flags & 0x10) != 0) ? HEADER_SIZE : 0);
+
+            byte[] body = FileChannels.readFully(in, HEADER_SIZE, tagSize);
+            int position = 0;
+            if ((flags & 0x40) != 0) {
+                // Extended header: v2.3 size excludes its own 4 bytes, v2.4 includes them
+                position = (version == 3) ? 4 + readInt(body, 0) : readSyncsafe(body, 0);
+            }
+            copyFrames(body, position, version, frames);
+        }
+
+        writeChapterFrames(chapters, version, frames);
+
+        byte[] frameBytes = frames.toByteArray();
+        if (frameBytes.length >= MAX_TAG_SIZE) {
+            throw new IOException("ID3 tag too large: " + frameBytes.length);
+        }
+        byte[] newHeader = {'I', 'D', '3', (byte) version, 0, 0, 0, 0, 0, 0};
+        writeSyncsafe(newHeader, 6, frameBytes.length);
+
+        FileChannels.writeFully(out, newHeader);
+        FileChannels.writeFully(out, frameBytes);
+        FileChannels.transferFully(in, audioStart, in.size() - audioStart, out);
+    }
+
+    /** Copy every frame except CHAP and CTOC, stopping at padding. */
+    private static void copyFrames(byte[] body, int position, int version, ByteArrayOutputStream out)
+            throws IOException {
+        while (position + HEADER_SIZE <= body.length && body[position] != 0) {
+            String id = new String(body, position, 4, LATIN_1);
+            int size = (version == 4) ? readSyncsafe(body, position + 4) : readInt(body, position + 4);
+            int end = position + HEADER_SIZE + size;
+            if (size < 0 || end > body.length) {
+                throw new IOException("Corrupt ID3 frame " + id);
+            }
+            if (!id.equals("CHAP") && !id.equals("CTOC")) {
+                out.write(body, position, end - position);
+            }
+            position = end;
+        }
+    }
+
+    private static void writeChapterFrames(List<Chapter> chapters, int version, ByteArrayOutputStream out)
+            throws IOException {
+        int count = chapters.size();
+        if (count <= MAX_TOC_ENTRIES) {
+            String[] children = new String[count];
+            for (int i = 0; i < count; i++) {
+                children[i] = chapterId(i);
+            }
+            out.write(tocFrame("toc", true, children, version));
+        } else {
+            // Too many for one CTOC: a top-level CTOC pointing at sub-tables
+            int tables = (count + MAX_TOC_ENTRIES - 1) / MAX_TOC_ENTRIES;
+            if (tables > MAX_TOC_ENTRIES) {
+                throw new IOException("Too many bookmarks for ID3 chapters: " + count);
+            }
+            String[] tableIds = new String[tables];
+            for (int t = 0; t < tables; t++) {
+                tableIds[t] = "toc" + t;
+            }
+            out.write(tocFrame("toc", true, tableIds, version));
+            for (int t = 0; t < tables; t++) {
+                int from = t * MAX_TOC_ENTRIES;
+                int to = Math.min(count, from + MAX_TOC_ENTRIES);
+                String[] children = new String[to - from];
+                for (int i = from; i < to; i++) {
+                    children[i - from] = chapterId(i);
+                }
+                out.write(tocFrame(tableIds[t], false, children, version));
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            out.write(chapterFrame(chapterId(i), chapters.get(i), version));
+        }
+    }
+
+    private static String chapterId(int index) {
+        return "ch" + index;
+    }
+
+    private static byte[] chapterFrame(String id, Chapter chapter, int version) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeTerminated(body, id);
+        writeInt(body, chapter.startMs);
+        writeInt(body, chapter.endMs);
+        writeInt(body, NO_OFFSET);
+        writeInt(body, NO_OFFSET);
+        body.write(textFrame("TIT2", chapter.title, version));
+        return frame("CHAP", body.toByteArray(), version);
+    }
+
+    private static byte[] tocFrame(String id, boolean topLevel, String[] children, int version)
+            throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeTerminated(body, id);
+        body.write((topLevel ? 0x02 : 0) | 0x01); // ordered
+        body.write(children.length);
+        for (String child : children) {
+            writeTerminated(body, child);
+        }
+        return frame("CTOC", body.toByteArray(), version);
+    }
+
+    private static byte[] textFrame(String id, String text, int version) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (LATIN_1.newEncoder().canEncode(text)) {
+            body.write(0);
+            body.write(text.getBytes(LATIN_1));
+        } else {
+            body.write(1);
+            body.write(text.getBytes(UTF_16));
+        }
+        return frame(id, body.toByteArray(), version);
+    }
+
+    private static byte[] frame(String id, byte[] body, int version) {
+        byte[] frame = new byte[HEADER_SIZE + body.length];
+        byte[] idBytes = id.getBytes(LATIN_1);
+        System.arraycopy(idBytes, 0, frame, 0, 4);
+        if (version == 4) {
+            writeSyncsafe(frame, 4, body.length);
+        } else {
+            putInt(frame, 4, body.length);
+        }
+        // flags (2 bytes) stay zero
+        System.arraycopy(body, 0, frame, HEADER_SIZE, body.length);
+        return frame;
+    }
+
+    // --- Byte helpers ---
+
+    private static void writeTerminated(ByteArrayOutputStream out, String text) throws IOException {
+        out.write(text.getBytes(LATIN_1));
+        out.write(0);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+
+    static int readSyncsafe(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0x7F) << 21) | ((bytes[offset + 1] & 0x7F) << 14)
+                | ((bytes[offset + 2] & 0x7F) << 7) | (bytes[offset + 3] & 0x7F);
+    }
+
+    private static void writeSyncsafe(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) ((value >>> 21) & 0x7F);
+        bytes[offset + 1] = (byte) ((value >>> 14) & 0x7F);
+        bytes[offset + 2] = (byte) ((value >>> 7) & 0x7F);
+        bytes[offset + 3] = (byte) (value & 0x7F);
+    }
+}
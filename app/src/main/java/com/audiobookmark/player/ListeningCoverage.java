@@ -0,0 +1,142 @@
+package com.audiobookmark.player;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Parts of a book that have actually been played, stored as sorted,
+ * non-overlapping [start, end) ranges in milliseconds.
+ *
+ * Adjacent ranges closer than MERGE_GAP_MS are joined on insert, so normal
+ * playback ticks collapse into one range. Inserts are O(log n) in the number
+ * of ranges. The number of ranges is capped at MAX_INTERVALS: past that the
+ * two ranges with the smallest gap between them are joined, which counts that
+ * gap as heard but keeps memory bounded however often the user seeks.
+ */
+public class ListeningCoverage {
+
+    static final int MERGE_GAP_MS = 1000;
+    static final int MAX_INTERVALS = 256;
+
+    private final TreeMap<Integer, Integer> intervals = new TreeMap<>(); // start -> end
+    private long heardMs = 0;
+
+    public void add(int start, int end) {
+        if (start < 0) start = 0;
+        if (end <= start) return;
+
+        // Join with the range that starts at or before us, if it reaches us
+        Map.Entry<Integer, Integer> floor = intervals.floorEntry(start);
+        if (floor != null && floor.getValue() + MERGE_GAP_MS >= start) {
+            if (floor.getValue() >= end) return; // already heard
+            start = floor.getKey();
+            end = Math.max(end, floor.getValue());
+            removeInterval(floor.getKey());
+        }
+
+        // Swallow every following range we now reach
+        Map.Entry<Integer, Integer> next = intervals.ceilingEntry(start);
+        while (next != null && next.getKey() <= end + MERGE_GAP_MS) {
+            end = Math.max(end, next.getValue());
+            removeInterval(next.getKey());
+            next = intervals.ceilingEntry(start);
+        }
+
+        intervals.put(start, end);
+        heardMs += end - start;
+
+        if (intervals.size() > MAX_INTERVALS) {
+            joinClosestPair();
+        }
+    }
+
+    public long getHeardMs() {
+        return heardMs;
+    }
+
+    /** Percentage of the book heard, 0-100. */
+    public int getPercent(int durationMs) {
+        if (durationMs <= 0) return 0;
+        return (int) Math.min(100, heardMs * 100 / durationMs);
+    }
+
+    /**
+     * Start of the first section longer than MERGE_GAP_MS that has not been
+     * heard, or -1 if the whole book has been heard.
+     */
+    public int getFirstUnheard(int durationMs) {
+        int position = 0;
+        for (Map.Entry<Integer, Integer> interval : intervals.entrySet()) {
+            if (interval.getKey() - position > MERGE_GAP_MS) {
+                return position;
+            }
+            position = Math.max(position, interval.getValue());
+        }
+        return (durationMs - position > MERGE_GAP_MS) ? position : -1;
+    }
+
+    /** Read-only view of the ranges, start -> end, in order. */
+    public Map<Integer, Integer> getIntervals() {
+        return Collections.unmodifiableMap(intervals);
+    }
+
+    public boolean isEmpty() {
+        return intervals.isEmpty();
+    }
+
+    // --- Persistence (flat start, end, start, end, ... list) ---
+
+    public List<Integer> toList() {
+        List<Integer> list = new ArrayList<>(intervals.size() * 2);
+        for (Map.Entry<Integer, Integer> interval : intervals.entrySet()) {
+            list.add(interval.getKey());
+            list.add(interval.getValue());
+        }
+        return list;
+    }
+
+    public static ListeningCoverage fromList(List<Integer> list) {
+        ListeningCoverage coverage = new ListeningCoverage();
+        for (int i = 0; i + 1 < list.size(); i += 2) {
+            coverage.add(list.get(i), list.get(i + 1));
+        }
+        return coverage;
+    }
+
+    // --- Internals ---
+
+    private void removeInterval(int start) {
+        Integer end = intervals.remove(start);
+        if (end != null) {
+            heardMs -= end - start;
+        }
+    }
+
+    /** Only runs when over the cap, so its linear scan is bounded by MAX_INTERVALS. */
+    private void joinClosestPair() {
+        Integer bestStart = null;
+        int bestGap = Integer.MAX_VALUE;
+        Integer previousStart = null;
+        int previousEnd = 0;
+        for (Map.Entry<Integer, Integer> interval : intervals.entrySet()) {
+            if (previousStart != null && interval.getKey() - previousEnd < bestGap) {
+                bestGap = interval.getKey() - previousEnd;
+                bestStart = previousStart;
+            }
+            previousStart = interval.getKey();
+            previousEnd = interval.getValue();
+        }
+        if (bestStart == null) return;
+
+        int start = bestStart;
+        Map.Entry<Integer, Integer> next = intervals.higherEntry(start);
+        int end = next.getValue();
+        removeInterval(start);
+        removeInterval(next.getKey());
+        intervals.put(start, end);
+        heardMs += end - start;
+    }
+}
@@ -4,24 +4,29 @@ import android.Manifest;
 import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.app.AlertDialog;
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
-import android.media.MediaPlayer;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
 import android.provider.OpenableColumns;
 import android.util.Log;
 import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
+import androidx.annotation.VisibleForTesting;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import com.google.android.material.button.MaterialButton;
+import com.google.android.material.switchmaterial.SwitchMaterial;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -41,10 +46,13 @@ public class MainActivity extends AppCompatActivity {
     private static final String PREF_BOOKMARKS = "bookmarks_json";
     private static final String PREF_SHARED_BOOKMARKS = "shared_bookmarks_json";
     private static final String PREF_LAST_FOLDER = "last_folder";
+    private static final String PREF_OFFLOAD = "offload_playback";
+    private static final String COVERAGE_PREFS_NAME = "AudioBookmarkCoverage"; // keyed by file URI
     private static final int PERMISSION_REQUEST_ACCOUNTS = 100;
+    private static final int PERMISSION_REQUEST_STORAGE = 102;
     private static final int REQUEST_CODE_OPEN_FILE = 101;
 
-    private MediaPlayer mediaPlayer;
+    private Playback player;
     private TextView fileNameText;
     private TextView currentTimeText;
     private TextView durationText;
@@ -55,7 +63,12 @@ public class MainActivity extends AppCompatActivity {
     private MaterialButton addBookmarkButton;
     private MaterialButton openFileButton;
     private MaterialButton shareButton;
+    private MaterialButton exportChaptersButton;
     private TextView bookmarksListText;
+    private SwitchMaterial offloadSwitch;
+    private CoverageBarView coverageBar;
+    private TextView coverageText;
+    private MaterialButton jumpUnheardButton;
 
     private Uri currentUri;
     private String currentFileName;
@@ -63,6 +76,14 @@ public class MainActivity extends AppCompatActivity {
     private Set<Integer> sharedBookmarks; // bookmarks already sent to Keep
     private float[] speedOptions = {1.0f, 1.25f, 1.5f, 1.75f, 2.0f};
     private int currentSpeedIndex = 0;
+    private ListeningCoverage coverage = new ListeningCoverage();
+    private Uri coverageUri; // file the coverage belongs to, may lag currentUri
+    private int lastListenedPosition = -1; // -1 while not playing
+    private boolean offloadFailed = false; // offload fell back for this file, don't retry
+    private PlaybackStats playbackStats = new PlaybackStats();
+
+    // Outlives the activity so a recreated one keeps export disabled until it finishes; main thread only
+    private static ChapterExportTask runningExport;
 
     // Used to defer loading a new file after saving unsaved bookmarks
     private Uri pendingUri;
@@ -89,10 +110,20 @@ public class MainActivity extends AppCompatActivity {
         addBookmarkButton = findViewById(R.id.addBookmarkButton);
         openFileButton = findViewById(R.id.openFileButton);
         shareButton = findViewById(R.id.exportButton);
+        exportChaptersButton = findViewById(R.id.exportChaptersButton);
         bookmarksListText = findViewById(R.id.bookmarksListText);
+        offloadSwitch = findViewById(R.id.offloadSwitch);
+        coverageBar = findViewById(R.id.coverageBar);
+        coverageText = findViewById(R.id.coverageText);
+        jumpUnheardButton = findViewById(R.id.jumpUnheardButton);
 
         setupListeners();
 
+        if (runningExport != null) {
+            runningExport.attach(this);
+            exportChaptersButton.setEnabled(false);
+        }
+
         Intent intent = getIntent();
         if (Intent.ACTION_VIEW.equals(intent.getAction()) && intent.getData() != null) {
             // Opened via "Open with" — load saved state first so we can detect
@@ -130,7 +161,11 @@ public class MainActivity extends AppCompatActivity {
 
         // Check if it's the same file we already have loaded
         if (currentUri != null && currentUri.toString().equals(newUri.toString())) {
-            // Same file — just continue, don't clear bookmarks
+            // Same file — just continue, don't clear bookmarks. If the activity was
+            // recreated (rotation, process restart) the player is gone, so reload it.
+            if (player == null) {
+                restoreState();
+            }
             return;
         }
 
@@ -164,7 +199,8 @@ public class MainActivity extends AppCompatActivity {
         sharedBookmarks = new HashSet<>(jsonToList(sharedJson));
     }
 
-    private void restoreState() {
+    @VisibleForTesting
+    void restoreState() {
         SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
         String savedUri = prefs.getString(PREF_FILE_URI, null);
         String savedName = prefs.getString(PREF_FILE_NAME, null);
@@ -184,41 +220,103 @@ public class MainActivity extends AppCompatActivity {
         updateBookmarksList();
 
         // Try to load the media file
-        if (!tryLoadMediaPlayer(currentUri, savedPosition)) {
+        if (!tryLoadPlayer(currentUri, savedPosition)) {
             // File no longer accessible
             showFileUnavailableDialog();
         }
     }
 
-    private boolean tryLoadMediaPlayer(Uri uri, int position) {
+    @VisibleForTesting
+    Playback getPlayback() {
+        return player;
+    }
+
+    private boolean tryLoadPlayer(Uri uri, int position) {
+        loadCoverage(uri);
+        lastListenedPosition = -1;
         try {
-            if (mediaPlayer != null) {
-                mediaPlayer.release();
+            if (player != null) {
+                playbackStats.onStop();
+                Log.i(TAG, "Playback stats: " + playbackStats.describe(player));
+                player.release();
+                player = null;
             }
-            mediaPlayer = new MediaPlayer();
-            mediaPlayer.setDataSource(this, uri);
-            mediaPlayer.prepare();
+            player = createPlayback(uri);
+            playbackStats = new PlaybackStats();
 
-            seekBar.setMax(mediaPlayer.getDuration());
-            durationText.setText(formatTime(mediaPlayer.getDuration()));
+            seekBar.setMax(player.getDuration());
+            durationText.setText(TimeFormat.format(player.getDuration()));
 
-            if (position > 0 && position < mediaPlayer.getDuration()) {
-                mediaPlayer.seekTo(position);
+            if (position > 0 && position < player.getDuration()) {
+                player.seekTo(position);
                 seekBar.setProgress(position);
-                currentTimeText.setText(formatTime(position));
+                currentTimeText.setText(TimeFormat.format(position));
             }
 
-            mediaPlayer.setOnCompletionListener(mp -> {
+            Playback loaded = player;
+            player.setOnCompletionListener(() -> {
+                if (player != loaded) return; // replaced while the callback was in flight
                 playPauseButton.setText("Play");
                 handler.removeCallbacks(updateSeekBar);
+                recordListening(loaded.getDuration());
+                lastListenedPosition = -1;
+                playbackStats.onStop();
+                updateCoverageViews();
             });
 
             playPauseButton.setText("Play");
             return true;
         } catch (IOException | IllegalArgumentException | SecurityException e) {
             Log.w(TAG, "Failed to load media: " + e.getMessage());
-            mediaPlayer = null;
+            player = null;
             return false;
+        } finally {
+            // Also on failure, so the bar drops the previous book's coverage
+            updateCoverageViews();
+        }
+    }
+
+    private Playback createPlayback(Uri uri) throws IOException {
+        if (isOffloadEnabled() && !offloadFailed && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            OffloadPlayback offload = OffloadPlayback.create(this, uri);
+            if (offload != null) {
+                offload.setOnFailureListener(() -> {
+                    if (player == offload) {
+                        fallBackToMediaPlayer();
+                    }
+                });
+                Log.d(TAG, "createPlayback: using compressed offload");
+                return offload;
+            }
+        }
+        return MediaPlayerPlayback.create(this, uri);
+    }
+
+    private boolean isOffloadEnabled() {
+        return getSharedPreferences(PREFS_NAME, MODE_PRIVATE).getBoolean(PREF_OFFLOAD, false);
+    }
+
+    private void fallBackToMediaPlayer() {
+        Log.w(TAG, "fallBackToMediaPlayer: offload unavailable, switching to MediaPlayer");
+        offloadFailed = true;
+        reloadPlayer();
+    }
+
+    /** Recreate the player for the current file, keeping position and play state. */
+    private void reloadPlayer() {
+        if (player == null || currentUri == null) return;
+        // Go by the UI state: a failed offload track has already stopped itself
+        boolean wasPlaying = lastListenedPosition >= 0;
+        int position = player.getCurrentPosition();
+        if (wasPlaying) {
+            recordListening(position);
+            lastListenedPosition = -1;
+            handler.removeCallbacks(updateSeekBar);
+            playbackStats.onStop();
+        }
+        saveCoverage();
+        if (tryLoadPlayer(currentUri, position) && wasPlaying) {
+            togglePlayPause();
         }
     }
 
@@ -273,14 +371,16 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void loadNewFile(Uri uri) {
+        saveCoverage(); // keep what was heard of the previous file
         currentUri = uri;
         currentFileName = getBaseName(uri);
         fileNameText.setText(currentFileName);
 
         bookmarks.clear();
         sharedBookmarks.clear();
+        offloadFailed = false;
 
-        if (!tryLoadMediaPlayer(uri, 0)) {
+        if (!tryLoadPlayer(uri, 0)) {
             Toast.makeText(this, "Error loading file", Toast.LENGTH_LONG).show();
         }
         updateBookmarksList();
@@ -293,13 +393,25 @@ public class MainActivity extends AppCompatActivity {
         addBookmarkButton.setOnClickListener(v -> addBookmark());
         openFileButton.setOnClickListener(v -> openFilePicker());
         shareButton.setOnClickListener(v -> shareToKeep());
+        exportChaptersButton.setOnClickListener(v -> exportChapters());
+        jumpUnheardButton.setOnClickListener(v -> jumpToFirstUnheard());
+
+        offloadSwitch.setChecked(isOffloadEnabled());
+        offloadSwitch.setEnabled(Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q);
+        offloadSwitch.setOnCheckedChangeListener((button, checked) -> {
+            getSharedPreferences(PREFS_NAME, MODE_PRIVATE)
+                    .edit()
+                    .putBoolean(PREF_OFFLOAD, checked)
+                    .apply();
+            offloadFailed = false;
+            reloadPlayer();
+        });
 
         seekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
             @Override
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-                if (fromUser && mediaPlayer != null) {
-                    mediaPlayer.seekTo(progress);
-                    currentTimeText.setText(formatTime(progress));
+                if (fromUser && player != null) {
+                    seekTo(progress);
                 }
             }
 
@@ -312,57 +424,145 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void togglePlayPause() {
-        if (mediaPlayer == null) {
+        if (player == null) {
             Toast.makeText(this, "No file loaded", Toast.LENGTH_SHORT).show();
             return;
         }
 
-        if (mediaPlayer.isPlaying()) {
-            mediaPlayer.pause();
+        if (player.isPlaying()) {
+            recordListening(player.getCurrentPosition());
+            lastListenedPosition = -1;
+            player.pause();
             handler.removeCallbacks(updateSeekBar);
+            playbackStats.onStop();
+            Log.i(TAG, "Playback stats: " + playbackStats.describe(player));
+            updateCoverageViews();
         } else {
-            mediaPlayer.start();
+            lastListenedPosition = player.getCurrentPosition();
+            player.start();
             handler.post(updateSeekBar);
+            playbackStats.onStart();
+            applySpeed();
+            if (player == null) return; // fell back to MediaPlayer and that failed to load
+        }
+        playPauseButton.setText(player.isPlaying() ? "Pause" : "Play");
+    }
+
+    private void seekTo(int position) {
+        if (lastListenedPosition >= 0) {
+            // Close off the range heard so far; listening resumes from the new spot
+            recordListening(player.getCurrentPosition());
+            lastListenedPosition = position;
         }
-        playPauseButton.setText(mediaPlayer.isPlaying() ? "Pause" : "Play");
+        player.seekTo(position);
+        seekBar.setProgress(position);
+        currentTimeText.setText(TimeFormat.format(position));
     }
 
     private void changeSpeed() {
-        if (mediaPlayer == null) return;
+        if (player == null) return;
 
         currentSpeedIndex = (currentSpeedIndex + 1) % speedOptions.length;
         float speed = speedOptions[currentSpeedIndex];
 
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.M) {
-            mediaPlayer.setPlaybackParams(mediaPlayer.getPlaybackParams().setSpeed(speed));
+        // A paused player picks the speed up when it starts; setting it now would start MediaPlayer
+        if (player.isPlaying()) {
+            applySpeed();
         }
 
         speedText.setText(String.format(Locale.US, "%.2fx", speed));
         speedButton.setText(String.format(Locale.US, "Speed: %.2fx", speed));
     }
 
+    /** Bring a playing player to the selected speed, leaving offload if it can't. */
+    private void applySpeed() {
+        float speed = speedOptions[currentSpeedIndex];
+        if (player.getSpeed() == speed) return;
+        if (!player.setSpeed(speed)) {
+            // Offload path can't change speed on this device — switch to MediaPlayer,
+            // which resumes playback and comes back through here
+            offloadFailed = true;
+            reloadPlayer();
+        }
+    }
+
     private void addBookmark() {
-        if (mediaPlayer == null) {
+        if (player == null) {
             Toast.makeText(this, "No file loaded", Toast.LENGTH_SHORT).show();
             return;
         }
 
-        int position = mediaPlayer.getCurrentPosition();
+        int position = player.getCurrentPosition();
         bookmarks.add(position); // append to end, no sorting
         updateBookmarksList();
         saveState();
 
-        Toast.makeText(this, "Bookmark added: " + formatTime(position), Toast.LENGTH_SHORT).show();
+        Toast.makeText(this, "Bookmark added: " + TimeFormat.format(position), Toast.LENGTH_SHORT).show();
     }
 
-    private void updateBookmarksList() {
+    @VisibleForTesting
+    void updateBookmarksList() {
         StringBuilder sb = new StringBuilder();
         for (int bookmark : bookmarks) {
-            sb.append(formatTime(bookmark)).append("\n");
+            sb.append(TimeFormat.format(bookmark)).append("\n");
         }
         bookmarksListText.setText(sb.toString());
     }
 
+    // --- Listening coverage ---
+
+    /**
+     * Count everything since the last tick as heard. Ticks can be far apart: in
+     * offload mode the app processor sleeps with the screen off and the next tick
+     * only comes when the DSP wants more data. Seeks never show up as a jump here
+     * because seekTo() closes the range and restarts it at the new spot.
+     */
+    private void recordListening(int position) {
+        if (lastListenedPosition >= 0 && position >= lastListenedPosition) {
+            coverage.add(lastListenedPosition, position);
+        }
+        lastListenedPosition = position;
+    }
+
+    private void updateCoverageViews() {
+        int duration = (player != null) ? player.getDuration() : 0;
+        coverageBar.setCoverage(coverage, duration);
+        coverageText.setText(String.format(Locale.US, "Heard %d%%", coverage.getPercent(duration)));
+    }
+
+    private void jumpToFirstUnheard() {
+        if (player == null) {
+            Toast.makeText(this, "No file loaded", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        int position = coverage.getFirstUnheard(player.getDuration());
+        if (position < 0) {
+            Toast.makeText(this, "Whole book heard", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        seekTo(position);
+        Toast.makeText(this, "Jumped to " + TimeFormat.format(position), Toast.LENGTH_SHORT).show();
+    }
+
+    private void loadCoverage(Uri uri) {
+        String json = getSharedPreferences(COVERAGE_PREFS_NAME, MODE_PRIVATE)
+                .getString(uri.toString(), null);
+        coverage = ListeningCoverage.fromList(jsonToList(json));
+        coverageUri = uri;
+    }
+
+    private void saveCoverage() {
+        if (coverageUri == null) return;
+        if (player != null && lastListenedPosition >= 0) {
+            recordListening(player.getCurrentPosition());
+        }
+        getSharedPreferences(COVERAGE_PREFS_NAME, MODE_PRIVATE)
+                .edit()
+                .putString(coverageUri.toString(), listToJson(coverage.toList()))
+                .apply();
+    }
+
     // --- Keep sharing ---
 
     private void shareToKeep() {
@@ -449,6 +649,12 @@ public class MainActivity extends AppCompatActivity {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
         if (requestCode == PERMISSION_REQUEST_ACCOUNTS) {
             showAccountPicker();
+        } else if (requestCode == PERMISSION_REQUEST_STORAGE) {
+            if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+                runChapterExport();
+            } else {
+                Toast.makeText(this, "Storage permission is needed to export chapters", Toast.LENGTH_LONG).show();
+            }
         }
     }
 
@@ -512,7 +718,7 @@ public class MainActivity extends AppCompatActivity {
         StringBuilder body = new StringBuilder();
         body.append("#Edit-times\n\n");
         for (int bookmark : bookmarks) {
-            body.append(formatTime(bookmark)).append("\n");
+            body.append(TimeFormat.format(bookmark)).append("\n");
         }
 
         Intent shareIntent = new Intent(Intent.ACTION_SEND);
@@ -544,9 +750,112 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    // --- Chapter export ---
+
+    private void exportChapters() {
+        if (player == null || currentUri == null) {
+            Toast.makeText(this, "No file loaded", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        if (bookmarks.isEmpty()) {
+            Toast.makeText(this, "No bookmarks to export", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        // Before Android 10, writing to Music/Chapters needs storage permission
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.WRITE_EXTERNAL_STORAGE)
+                        != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this,
+                    new String[]{Manifest.permission.WRITE_EXTERNAL_STORAGE},
+                    PERMISSION_REQUEST_STORAGE);
+            return;
+        }
+
+        runChapterExport();
+    }
+
+    /** Export into Music/Chapters on a worker thread. */
+    private void runChapterExport() {
+        if (player == null || currentUri == null) return;
+
+        if (runningExport != null) {
+            Toast.makeText(this, "Chapter export already running", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        runningExport = new ChapterExportTask(this, currentUri, getDisplayName(currentUri),
+                new ArrayList<>(bookmarks), player.getDuration());
+        exportChaptersButton.setEnabled(false);
+        Toast.makeText(this, "Exporting chapters...", Toast.LENGTH_SHORT).show();
+
+        // Rewriting a large file takes a while — keep it off the UI thread
+        new Thread(runningExport, "ChapterExport").start();
+    }
+
+    /**
+     * One chapter export, run on a worker thread. Holds only the application
+     * context and a weak reference to the activity on screen, so rotating or
+     * leaving mid-export doesn't keep an old activity alive.
+     */
+    private static class ChapterExportTask implements Runnable {
+        private final Context appContext;
+        private final Uri source;
+        private final String displayName;
+        private final List<Integer> bookmarks;
+        private final int durationMs;
+        private final Handler mainHandler = new Handler(Looper.getMainLooper());
+        private WeakReference<MainActivity> activity; // main thread only
+
+        ChapterExportTask(MainActivity activity, Uri source, String displayName,
+                          List<Integer> bookmarks, int durationMs) {
+            this.appContext = activity.getApplicationContext();
+            this.source = source;
+            this.displayName = displayName;
+            this.bookmarks = bookmarks;
+            this.durationMs = durationMs;
+            attach(activity);
+        }
+
+        /** Report back to this activity instead, e.g. after a rotation. */
+        void attach(MainActivity activity) {
+            this.activity = new WeakReference<>(activity);
+        }
+
+        @Override
+        public void run() {
+            String message;
+            try {
+                String location;
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                    location = ChapterExporter.exportToMusic(appContext, source, displayName, bookmarks, durationMs);
+                } else {
+                    location = ChapterExporter.exportToMusicFolder(appContext, source, displayName, bookmarks, durationMs);
+                }
+                message = "Chapters saved: " + location;
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "exportChapters: failed", e);
+                message = "Chapter export failed: " + e.getMessage();
+            }
+            String result = message;
+            mainHandler.post(() -> finish(result));
+        }
+
+        private void finish(String message) {
+            runningExport = null;
+            Toast.makeText(appContext, message, Toast.LENGTH_LONG).show();
+            MainActivity current = activity.get();
+            if (current != null && !current.isFinishing() && !current.isDestroyed()) {
+                current.exportChaptersButton.setEnabled(true);
+            }
+        }
+    }
+
     // --- State persistence ---
 
-    private void saveState() {
+    @VisibleForTesting
+    void saveState() {
         SharedPreferences.Editor editor = getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit();
         if (currentUri != null) {
             editor.putString(PREF_FILE_URI, currentUri.toString());
@@ -554,11 +863,12 @@ public class MainActivity extends AppCompatActivity {
         if (currentFileName != null) {
             editor.putString(PREF_FILE_NAME, currentFileName);
         }
-        int position = (mediaPlayer != null) ? mediaPlayer.getCurrentPosition() : 0;
+        int position = (player != null) ? player.getCurrentPosition() : 0;
         editor.putInt(PREF_POSITION, position);
         editor.putString(PREF_BOOKMARKS, listToJson(bookmarks));
         editor.putString(PREF_SHARED_BOOKMARKS, listToJson(new ArrayList<>(sharedBookmarks)));
         editor.apply();
+        saveCoverage();
     }
 
     private void clearSavedState() {
@@ -569,6 +879,14 @@ public class MainActivity extends AppCompatActivity {
         editor.remove(PREF_BOOKMARKS);
         editor.remove(PREF_SHARED_BOOKMARKS);
         editor.apply();
+        if (coverageUri != null) {
+            getSharedPreferences(COVERAGE_PREFS_NAME, MODE_PRIVATE)
+                    .edit()
+                    .remove(coverageUri.toString())
+                    .apply();
+        }
+        coverage = new ListeningCoverage();
+        coverageUri = null;
         currentUri = null;
         currentFileName = null;
         bookmarks.clear();
@@ -636,24 +954,27 @@ public class MainActivity extends AppCompatActivity {
     private Runnable updateSeekBar = new Runnable() {
         @Override
         public void run() {
-            if (mediaPlayer != null && mediaPlayer.isPlaying()) {
-                int currentPosition = mediaPlayer.getCurrentPosition();
+            if (player != null && player.isPlaying()) {
+                int currentPosition = player.getCurrentPosition();
                 seekBar.setProgress(currentPosition);
-                currentTimeText.setText(formatTime(currentPosition));
+                currentTimeText.setText(TimeFormat.format(currentPosition));
+                recordListening(currentPosition);
+                updateCoverageViews();
                 handler.postDelayed(this, 100);
             }
         }
     };
 
-    private String formatTime(int milliseconds) {
-        int seconds = milliseconds / 1000;
-        int hours = seconds / 3600;
-        int minutes = (seconds % 3600) / 60;
-        int secs = seconds % 60;
-        return String.format(Locale.US, "%02d:%02d:%02d", hours, minutes, secs);
+    private String getBaseName(Uri uri) {
+        String displayName = getDisplayName(uri);
+        int dotIndex = displayName.lastIndexOf('.');
+        if (dotIndex > 0) {
+            return displayName.substring(0, dotIndex);
+        }
+        return displayName;
     }
 
-    private String getBaseName(Uri uri) {
+    private String getDisplayName(Uri uri) {
         String displayName = null;
 
         if ("content".equals(uri.getScheme())) {
@@ -673,13 +994,7 @@ public class MainActivity extends AppCompatActivity {
             displayName = uri.getLastPathSegment();
         }
 
-        if (displayName == null) return "Unknown";
-
-        int dotIndex = displayName.lastIndexOf('.');
-        if (dotIndex > 0) {
-            return displayName.substring(0, dotIndex);
-        }
-        return displayName;
+        return (displayName != null) ? displayName : "Unknown";
     }
 
     private void openFilePicker() {
@@ -723,9 +1038,10 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (mediaPlayer != null) {
-            mediaPlayer.release();
-            mediaPlayer = null;
+        if (player != null) {
+            playbackStats.onStop();
+            player.release();
+            player = null;
         }
         handler.removeCallbacks(updateSeekBar);
     }
@@ -0,0 +1,98 @@
+package com.audiobookmark.player;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.media.PlaybackParams;
+import android.net.Uri;
+import android.os.Build;
+import java.io.IOException;
+
+/**
+ * Default playback path: MediaPlayer decodes to PCM and plays it.
+ */
+public class MediaPlayerPlayback implements Playback {
+
+    private final MediaPlayer mediaPlayer;
+    private float speed = 1.0f;
+
+    private MediaPlayerPlayback(MediaPlayer mediaPlayer) {
+        this.mediaPlayer = mediaPlayer;
+    }
+
+    public static MediaPlayerPlayback create(Context context, Uri uri) throws IOException {
+        MediaPlayer mediaPlayer = new MediaPlayer();
+        try {
+            mediaPlayer.setDataSource(context, uri);
+            mediaPlayer.prepare();
+        } catch (IOException | RuntimeException e) {
+            mediaPlayer.release();
+            throw e;
+        }
+        return new MediaPlayerPlayback(mediaPlayer);
+    }
+
+    @Override
+    public void start() {
+        mediaPlayer.start();
+    }
+
+    @Override
+    public void pause() {
+        mediaPlayer.pause();
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return mediaPlayer.isPlaying();
+    }
+
+    @Override
+    public void seekTo(int position) {
+        mediaPlayer.seekTo(position);
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        return mediaPlayer.getCurrentPosition();
+    }
+
+    @Override
+    public int getDuration() {
+        return mediaPlayer.getDuration();
+    }
+
+    @Override
+    public boolean setSpeed(float speed) {
+        // Note: on a paused player this also starts playback
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            mediaPlayer.setPlaybackParams(new PlaybackParams().setSpeed(speed));
+        }
+        this.speed = speed;
+        return true;
+    }
+
+    @Override
+    public float getSpeed() {
+        return speed;
+    }
+
+    @Override
+    public void setOnCompletionListener(Runnable listener) {
+        mediaPlayer.setOnCompletionListener(mp -> listener.run());
+    }
+
+    @Override
+    public boolean isOffloaded() {
+        return false;
+    }
+
+    @Override
+    public long getOffloadedFrames() {
+        return 0;
+    }
+
+    @Override
+    public void release() {
+        mediaPlayer.release();
+    }
+}
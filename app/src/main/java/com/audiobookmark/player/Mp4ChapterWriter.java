@@ -0,0 +1,532 @@
+package com.audiobookmark.player;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes chapters into an M4A/M4B as a chapter text track: a disabled tx3g
+ * track whose samples are the chapter titles, referenced from the audio
+ * track through tref/chap (what Apple players and ffmpeg read). Old chapter
+ * tracks and Nero chpl chapter lists are dropped.
+ *
+ * Only the moov box is rebuilt in memory. Every other top-level box is
+ * copied channel to channel, and the chapter samples go into a small mdat
+ * appended at the end. If moov sits before the audio data, the audio
+ * chunk offsets are shifted by however much moov grew.
+ */
+final class Mp4ChapterWriter {
+
+    private static final int CHAPTER_TIMESCALE = 1000; // chapter track counts in ms
+    private static final long MAX_UINT32 = 0xFFFFFFFFL;
+
+    private Mp4ChapterWriter() {}
+
+    static boolean isMp4(byte[] head) {
+        return head.length >= 8 && "ftyp".equals(new String(head, 4, 4, StandardCharsets.ISO_8859_1));
+    }
+
+    static void write(FileChannel in, FileChannel out, List<Chapter> chapters) throws IOException {
+        long fileSize = in.size();
+
+        // Locate moov among the top-level boxes
+        long moovOffset = -1;
+        long moovSize = 0;
+        long position = 0;
+        while (position < fileSize) {
+            if (fileSize - position < 8) throw new IOException("Truncated MP4 box header");
+            byte[] header = FileChannels.readFully(in, position, 8);
+            long size = readUInt32(header, 0);
+            String type = fourcc(header, 4);
+            if (size == 1) {
+                size = readInt64(FileChannels.readFully(in, position + 8, 8), 0);
+            } else if (size == 0) {
+                throw new IOException("MP4 box running to end of file is not supported");
+            }
+            if (size < 8 || position + size > fileSize) {
+                throw new IOException("Corrupt MP4 box " + type);
+            }
+            if (type.equals("moof")) {
+                throw new IOException("Fragmented MP4 is not supported");
+            }
+            if (type.equals("moov")) {
+                moovOffset = position;
+                moovSize = size;
+            }
+            position += size;
+        }
+        if (moovOffset < 0) throw new IOException("No moov box");
+        if (moovSize > Integer.MAX_VALUE) throw new IOException("moov box too large");
+
+        byte[] oldMoov = FileChannels.readFully(in, moovOffset, (int) moovSize);
+        long oldMoovEnd = moovOffset + moovSize;
+
+        MoovEditor editor = new MoovEditor(oldMoov, chapters);
+        byte[] newMoov = editor.build(false, 0);
+        long chapterDataOffset = fileSize - moovSize + newMoov.length + 8;
+        if (chapterDataOffset > MAX_UINT32) {
+            newMoov = editor.build(true, 0);
+            chapterDataOffset = fileSize - moovSize + newMoov.length + 8;
+        }
+        newMoov = editor.build(chapterDataOffset > MAX_UINT32, chapterDataOffset);
+
+        long delta = newMoov.length - moovSize;
+        shiftChunkOffsets(newMoov, oldMoovEnd, delta, editor.chapterTrackId);
+
+        FileChannels.transferFully(in, 0, moovOffset, out);
+        FileChannels.writeFully(out, newMoov);
+        FileChannels.transferFully(in, oldMoovEnd, fileSize - oldMoovEnd, out);
+        FileChannels.writeFully(out, chapterMdat(chapters));
+    }
+
+    // --- moov rebuilding ---
+
+    private static class MoovEditor {
+        private final byte[] moov;
+        private final List<Chapter> chapters;
+        private final int movieTimescale;
+        private final int chapterTrackId;
+        private final Box audioTrak;
+        private final Set<Integer> oldChapterTrackIds = new HashSet<>();
+
+        MoovEditor(byte[] moov, List<Chapter> chapters) throws IOException {
+            this.moov = moov;
+            this.chapters = chapters;
+
+            Box mvhd = null;
+            Box audio = null;
+            int maxTrackId = 0;
+            for (Box child : Box.children(moov, 0)) {
+                if (child.is("mvhd")) {
+                    mvhd = child;
+                } else if (child.is("trak")) {
+                    maxTrackId = Math.max(maxTrackId, trackId(moov, child));
+                    if (audio == null && "soun".equals(handlerType(moov, child))) {
+                        audio = child;
+                    }
+                } else if (child.is("mvex")) {
+                    throw new IOException("Fragmented MP4 is not supported");
+                }
+            }
+            if (mvhd == null) throw new IOException("No mvhd box");
+            if (audio == null) throw new IOException("No audio track");
+
+            int mvhdVersion = moov[mvhd.payload()];
+            movieTimescale = (int) readUInt32(moov, mvhd.payload() + (mvhdVersion == 1 ? 20 : 12));
+            long nextTrackId = readUInt32(moov, mvhd.end() - 4);
+            chapterTrackId = (int) Math.max(nextTrackId, maxTrackId + 1L);
+            audioTrak = audio;
+
+            Box tref = audio.child(moov, "tref");
+            Box chap = (tref != null) ? tref.child(moov, "chap") : null;
+            if (chap != null) {
+                for (int p = chap.payload(); p + 4 <= chap.end(); p += 4) {
+                    oldChapterTrackIds.add((int) readUInt32(moov, p));
+                }
+            }
+        }
+
+        byte[] build(boolean use64BitOffset, long chapterDataOffset) throws IOException {
+            Payload body = new Payload();
+            for (Box child : Box.children(moov, 0)) {
+                if (child.is("mvhd")) {
+                    byte[] mvhd = child.copy(moov);
+                    putUInt32(mvhd, mvhd.length - 4, chapterTrackId + 1L);
+                    body.write(mvhd);
+                } else if (child.is("trak") && oldChapterTrackIds.contains(trackId(moov, child))) {
+                    // Replaced by the new chapter track; its samples are left unreferenced
+                    continue;
+                } else if (child.offset == audioTrak.offset) {
+                    body.write(audioTrakWithChapterReference());
+                } else if (child.is("udta")) {
+                    body.write(udtaWithoutNeroChapters(child));
+                } else {
+                    body.write(child.copy(moov));
+                }
+            }
+            body.write(chapterTrak(use64BitOffset, chapterDataOffset));
+            return box("moov", body.toByteArray());
+        }
+
+        /** Nero chpl chapters (written by ffmpeg and m4b-tool) would contradict the new track. */
+        private byte[] udtaWithoutNeroChapters(Box udta) throws IOException {
+            Payload kept = new Payload();
+            for (Box entry : Box.children(moov, udta.offset)) {
+                if (!entry.is("chpl")) kept.write(entry.copy(moov));
+            }
+            return box("udta", kept.toByteArray());
+        }
+
+        private byte[] audioTrakWithChapterReference() throws IOException {
+            Payload tref = new Payload();
+            Box oldTref = audioTrak.child(moov, "tref");
+            if (oldTref != null) {
+                for (Box reference : Box.children(moov, oldTref.offset)) {
+                    if (!reference.is("chap")) tref.write(reference.copy(moov));
+                }
+            }
+            Payload chap = new Payload();
+            chap.int32(chapterTrackId);
+            tref.write(box("chap", chap.toByteArray()));
+
+            Payload trak = new Payload();
+            for (Box child : Box.children(moov, audioTrak.offset)) {
+                if (child.is("tref")) continue;
+                trak.write(child.copy(moov));
+                if (child.is("tkhd")) {
+                    trak.write(box("tref", tref.toByteArray()));
+                }
+            }
+            return box("trak", trak.toByteArray());
+        }
+
+        private byte[] chapterTrak(boolean use64BitOffset, long chapterDataOffset) throws IOException {
+            long totalMs = chapters.isEmpty() ? 0 : chapters.get(chapters.size() - 1).endMs;
+
+            Payload tkhd = new Payload();
+            tkhd.int32(0x00000002); // version 0, flags: in movie but not enabled
+            tkhd.int32(0);          // creation time
+            tkhd.int32(0);          // modification time
+            tkhd.int32(chapterTrackId);
+            tkhd.int32(0);
+            tkhd.int32(totalMs * movieTimescale / 1000);
+            tkhd.int32(0);
+            tkhd.int32(0);
+            tkhd.int16(0);          // layer
+            tkhd.int16(0);          // alternate group
+            tkhd.int16(0);          // volume
+            tkhd.int16(0);
+            int[] matrix = {0x00010000, 0, 0, 0, 0x00010000, 0, 0, 0, 0x40000000};
+            for (int value : matrix) tkhd.int32(value);
+            tkhd.int32(0);          // width
+            tkhd.int32(0);          // height
+
+            Payload mdhd = new Payload();
+            mdhd.int32(0);
+            mdhd.int32(0);
+            mdhd.int32(0);
+            mdhd.int32(CHAPTER_TIMESCALE);
+            mdhd.int32(totalMs);
+            mdhd.int16(0x55C4);     // language "und"
+            mdhd.int16(0);
+
+            Payload hdlr = new Payload();
+            hdlr.int32(0);
+            hdlr.int32(0);
+            hdlr.fourcc("text");
+            hdlr.int32(0);
+            hdlr.int32(0);
+            hdlr.int32(0);
+            hdlr.write("Chapters\0".getBytes(StandardCharsets.US_ASCII));
+
+            Payload nmhd = new Payload();
+            nmhd.int32(0);
+
+            Payload url = new Payload();
+            url.int32(0x00000001);  // media data is in this file
+            Payload dref = new Payload();
+            dref.int32(0);
+            dref.int32(1);
+            dref.write(box("url ", url.toByteArray()));
+
+            byte[] stbl = box("stbl",
+                    box("stsd", sampleDescriptions()),
+                    box("stts", timeToSample()),
+                    box("stsc", sampleToChunk()),
+                    box("stsz", sampleSizes()),
+                    use64BitOffset ? box("co64", chunkOffset64(chapterDataOffset))
+                            : box("stco", chunkOffset32(chapterDataOffset)));
+
+            byte[] minf = box("minf",
+                    box("nmhd", nmhd.toByteArray()),
+                    box("dinf", box("dref", dref.toByteArray())),
+                    stbl);
+            byte[] mdia = box("mdia",
+                    box("mdhd", mdhd.toByteArray()),
+                    box("hdlr", hdlr.toByteArray()),
+                    minf);
+            return box("trak", box("tkhd", tkhd.toByteArray()), mdia);
+        }
+
+        private byte[] sampleDescriptions() throws IOException {
+            Payload tx3g = new Payload();
+            tx3g.int32(0);
+            tx3g.int16(0);          // 6 reserved bytes
+            tx3g.int16(1);          // data reference index
+            tx3g.int32(0);          // display flags
+            tx3g.int16(0);          // horizontal + vertical justification
+            tx3g.int32(0);          // background colour
+            tx3g.int32(0);          // text box top/left
+            tx3g.int32(0);          // text box bottom/right
+            tx3g.int32(0);          // style: start/end char
+            tx3g.int16(1);          // style: font id
+            tx3g.int16(0);          // style: face + size
+            tx3g.int32(0xFFFFFFFF); // style: text colour
+            Payload ftab = new Payload();
+            ftab.int16(1);          // one font
+            ftab.int16(1);          // font id
+            ftab.write(0);          // empty font name
+            tx3g.write(box("ftab", ftab.toByteArray()));
+
+            Payload stsd = new Payload();
+            stsd.int32(0);
+            stsd.int32(1);
+            stsd.write(box("tx3g", tx3g.toByteArray()));
+            return stsd.toByteArray();
+        }
+
+        private byte[] timeToSample() {
+            Payload stts = new Payload();
+            stts.int32(0);
+            stts.int32(chapters.size());
+            for (Chapter chapter : chapters) {
+                stts.int32(1);
+                stts.int32(chapter.endMs - chapter.startMs);
+            }
+            return stts.toByteArray();
+        }
+
+        private byte[] sampleToChunk() {
+            Payload stsc = new Payload();
+            stsc.int32(0);
+            stsc.int32(1);
+            stsc.int32(1);          // first chunk
+            stsc.int32(chapters.size());
+            stsc.int32(1);          // sample description index
+            return stsc.toByteArray();
+        }
+
+        private byte[] sampleSizes() {
+            Payload stsz = new Payload();
+            stsz.int32(0);
+            stsz.int32(0);          // sizes vary
+            stsz.int32(chapters.size());
+            for (Chapter chapter : chapters) {
+                stsz.int32(chapterSample(chapter).length);
+            }
+            return stsz.toByteArray();
+        }
+
+        private byte[] chunkOffset32(long offset) {
+            Payload stco = new Payload();
+            stco.int32(0);
+            stco.int32(1);
+            stco.int32(offset);
+            return stco.toByteArray();
+        }
+
+        private byte[] chunkOffset64(long offset) {
+            Payload co64 = new Payload();
+            co64.int32(0);
+            co64.int32(1);
+            co64.int64(offset);
+            return co64.toByteArray();
+        }
+    }
+
+    /** Move chunk offsets that point past the old moov by delta, skipping the chapter track. */
+    private static void shiftChunkOffsets(byte[] moov, long threshold, long delta, int skipTrackId)
+            throws IOException {
+        if (delta == 0) return;
+        for (Box trak : Box.children(moov, 0)) {
+            if (!trak.is("trak") || trackId(moov, trak) == skipTrackId) continue;
+            Box stbl = trak.find(moov, "mdia", "minf", "stbl");
+            if (stbl == null) continue;
+            for (Box table : Box.children(moov, stbl.offset)) {
+                boolean wide = table.is("co64");
+                if (!wide && !table.is("stco")) continue;
+                int entrySize = wide ? 8 : 4;
+                long count = readUInt32(moov, table.payload() + 4);
+                int p = table.payload() + 8;
+                for (long i = 0; i < count; i++, p += entrySize) {
+                    long offset = wide ? readInt64(moov, p) : readUInt32(moov, p);
+                    if (offset < threshold) continue;
+                    offset += delta;
+                    if (wide) {
+                        putInt64(moov, p, offset);
+                    } else if (offset > MAX_UINT32) {
+                        throw new IOException("File too large to add chapters with 32-bit chunk offsets");
+                    } else {
+                        putUInt32(moov, p, offset);
+                    }
+                }
+            }
+        }
+    }
+
+    private static byte[] chapterMdat(List<Chapter> chapters) throws IOException {
+        Payload samples = new Payload();
+        for (Chapter chapter : chapters) {
+            samples.write(chapterSample(chapter));
+        }
+        return box("mdat", samples.toByteArray());
+    }
+
+    /** Text sample: 16-bit length, UTF-8 title, then an encd box marking UTF-8. */
+    private static byte[] chapterSample(Chapter chapter) {
+        byte[] title = chapter.title.getBytes(StandardCharsets.UTF_8);
+        Payload sample = new Payload();
+        sample.int16(title.length);
+        sample.write(title, 0, title.length);
+        sample.int32(12);
+        sample.fourcc("encd");
+        sample.int32(0x00000100);
+        return sample.toByteArray();
+    }
+
+    private static int trackId(byte[] moov, Box trak) throws IOException {
+        Box tkhd = trak.child(moov, "tkhd");
+        if (tkhd == null) throw new IOException("Track without tkhd");
+        int version = moov[tkhd.payload()];
+        return (int) readUInt32(moov, tkhd.payload() + (version == 1 ? 20 : 12));
+    }
+
+    private static String handlerType(byte[] moov, Box trak) throws IOException {
+        Box hdlr = trak.find(moov, "mdia", "hdlr");
+        return (hdlr != null) ? fourcc(moov, hdlr.payload() + 8) : null;
+    }
+
+    // --- Box parsing and building ---
+
+    /** A box inside the in-memory moov: offset of its header and total size. */
+    private static class Box {
+        final String type;
+        final int offset;
+        final int size;
+        final int headerSize;
+
+        Box(String type, int offset, int size, int headerSize) {
+            this.type = type;
+            this.offset = offset;
+            this.size = size;
+            this.headerSize = headerSize;
+        }
+
+        boolean is(String fourcc) {
+            return type.equals(fourcc);
+        }
+
+        int payload() {
+            return offset + headerSize;
+        }
+
+        int end() {
+            return offset + size;
+        }
+
+        byte[] copy(byte[] data) {
+            byte[] bytes = new byte[size];
+            System.arraycopy(data, offset, bytes, 0, size);
+            return bytes;
+        }
+
+        Box child(byte[] data, String fourcc) throws IOException {
+            for (Box child : children(data, offset)) {
+                if (child.is(fourcc)) return child;
+            }
+            return null;
+        }
+
+        Box find(byte[] data, String... path) throws IOException {
+            Box box = this;
+            for (String fourcc : path) {
+                box = box.child(data, fourcc);
+                if (box == null) return null;
+            }
+            return box;
+        }
+
+        static Box at(byte[] data, int offset) throws IOException {
+            if (offset + 8 > data.length) throw new IOException("Truncated MP4 box");
+            long size = readUInt32(data, offset);
+            int headerSize = 8;
+            if (size == 1) {
+                size = readInt64(data, offset + 8);
+                headerSize = 16;
+            }
+            if (size < headerSize || offset + size > data.length) {
+                throw new IOException("Corrupt MP4 box " + fourcc(data, offset + 4));
+            }
+            return new Box(fourcc(data, offset + 4), offset, (int) size, headerSize);
+        }
+
+        /** Children of the container box starting at containerOffset. */
+        static List<Box> children(byte[] data, int containerOffset) throws IOException {
+            Box container = at(data, containerOffset);
+            List<Box> children = new ArrayList<>();
+            int p = container.payload();
+            while (p + 8 <= container.end()) {
+                Box child = at(data, p);
+                children.add(child);
+                p = child.end();
+            }
+            return children;
+        }
+    }
+
+    private static byte[] box(String type, byte[]... parts) throws IOException {
+        int size = 8;
+        for (byte[] part : parts) size += part.length;
+        Payload box = new Payload();
+        box.int32(size);
+        box.fourcc(type);
+        for (byte[] part : parts) box.write(part);
+        return box.toByteArray();
+    }
+
+    private static class Payload extends ByteArrayOutputStream {
+        void int16(int value) {
+            write(value >>> 8);
+            write(value);
+        }
+
+        void int32(long value) {
+            write((int) (value >>> 24));
+            write((int) (value >>> 16));
+            write((int) (value >>> 8));
+            write((int) value);
+        }
+
+        void int64(long value) {
+            int32(value >>> 32);
+            int32(value);
+        }
+
+        void fourcc(String type) {
+            byte[] bytes = type.getBytes(StandardCharsets.ISO_8859_1);
+            write(bytes, 0, 4);
+        }
+    }
+
+    // --- Byte helpers ---
+
+    private static String fourcc(byte[] data, int offset) {
+        return new String(data, offset, 4, StandardCharsets.ISO_8859_1);
+    }
+
+    private static long readUInt32(byte[] data, int offset) {
+        return ((data[offset] & 0xFFL) << 24) | ((data[offset + 1] & 0xFFL) << 16)
+                | ((data[offset + 2] & 0xFFL) << 8) | (data[offset + 3] & 0xFFL);
+    }
+
+    private static long readInt64(byte[] data, int offset) {
+        return (readUInt32(data, offset) << 32) | readUInt32(data, offset + 4);
+    }
+
+    private static void putUInt32(byte[] data, int offset, long value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    private static void putInt64(byte[] data, int offset, long value) {
+        putUInt32(data, offset, value >>> 32);
+        putUInt32(data, offset + 4, value);
+    }
+}
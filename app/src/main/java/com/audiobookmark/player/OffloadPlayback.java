@@ -0,0 +1,327 @@
+package com.audiobookmark.player;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compressed-offload playback path (API 29+). MediaExtractor pulls the
+ * encoded MP3/AAC frames out of the file and they are written as-is to an
+ * offloaded AudioTrack, so the audio DSP decodes and the app processor only
+ * wakes up when the track asks for more data.
+ *
+ * All extractor and track work runs on one feeder thread; the public methods
+ * post to it so calls are applied in order. Position is the media time of
+ * the last seek plus the track's playback head, so bookmarks land on what
+ * was actually heard.
+ */
+@RequiresApi(Build.VERSION_CODES.Q)
+public class OffloadPlayback implements Playback {
+
+    private static final String TAG = "AudioBookmark";
+    private static final int TRACK_BUFFER_BYTES = 512 * 1024; // ~30 s at 128 kbps, fewer wakeups
+    private static final int DEFAULT_MAX_SAMPLE_BYTES = 64 * 1024;
+
+    private static final AudioAttributes ATTRIBUTES = new AudioAttributes.Builder()
+            .setUsage(AudioAttributes.USAGE_MEDIA)
+            .setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
+            .build();
+
+    private final MediaExtractor extractor;
+    private final AudioTrack track;
+    private final int durationMs;
+    private final ByteBuffer sample;
+    private final HandlerThread feederThread;
+    private final Handler feeder;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private volatile boolean playing = false;
+    private volatile boolean completed = false;
+    private volatile int basePositionMs = 0; // media time the track head counts from
+    private volatile int seekTargetMs = -1;  // reported until the feeder applies the seek
+    private volatile long offloadedFrames = 0;
+    private float speed = 1.0f;
+    private boolean endOfStream = false;     // feeder thread only
+
+    private Runnable onCompletion;
+    private Runnable onFailure;
+
+    private final AudioTrack.StreamEventCallback streamCallback = new AudioTrack.StreamEventCallback() {
+        @Override
+        public void onDataRequest(@NonNull AudioTrack track, int sizeInFrames) {
+            feed();
+        }
+
+        @Override
+        public void onTearDown(@NonNull AudioTrack track) {
+            Log.w(TAG, "Offload track torn down");
+            fail();
+        }
+
+        @Override
+        public void onPresentationEnded(@NonNull AudioTrack track) {
+            if (!endOfStream) return;
+            playing = false;
+            completed = true;
+            postToMain(onCompletion);
+        }
+    };
+
+    private OffloadPlayback(MediaExtractor extractor, MediaFormat format, AudioFormat audioFormat) {
+        this.extractor = extractor;
+        this.durationMs = (int) (format.getLong(MediaFormat.KEY_DURATION) / 1000);
+
+        int maxSampleBytes = format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+                ? format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE)
+                : DEFAULT_MAX_SAMPLE_BYTES;
+        sample = ByteBuffer.allocateDirect(maxSampleBytes);
+        sample.limit(0);
+
+        track = new AudioTrack.Builder()
+                .setAudioAttributes(ATTRIBUTES)
+                .setAudioFormat(audioFormat)
+                .setTransferMode(AudioTrack.MODE_STREAM)
+                .setBufferSizeInBytes(TRACK_BUFFER_BYTES)
+                .setOffloadedPlayback(true)
+                .build();
+
+        feederThread = new HandlerThread("OffloadFeeder");
+        feederThread.start();
+        feeder = new Handler(feederThread.getLooper());
+        track.registerStreamEventCallback(feeder::post, streamCallback);
+    }
+
+    /**
+     * Open the file for offloaded playback, or return null if the device
+     * cannot offload its format so the caller can fall back to MediaPlayer.
+     */
+    public static OffloadPlayback create(Context context, Uri uri) {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(context, uri, null);
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat format = extractor.getTrackFormat(i);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                if (mime == null || !mime.startsWith("audio/")) continue;
+
+                AudioFormat audioFormat = toAudioFormat(mime, format);
+                if (audioFormat == null || !format.containsKey(MediaFormat.KEY_DURATION)
+                        || !AudioManager.isOffloadedPlaybackSupported(audioFormat, ATTRIBUTES)) {
+                    Log.d(TAG, "Offload not supported for " + mime);
+                    break;
+                }
+                extractor.selectTrack(i);
+                return new OffloadPlayback(extractor, format, audioFormat);
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Offload playback unavailable: " + e.getMessage());
+        }
+        extractor.release();
+        return null;
+    }
+
+    private static AudioFormat toAudioFormat(String mime, MediaFormat format) {
+        int encoding;
+        if (MediaFormat.MIMETYPE_AUDIO_MPEG.equals(mime)) {
+            encoding = AudioFormat.ENCODING_MP3;
+        } else if (MediaFormat.MIMETYPE_AUDIO_AAC.equals(mime)) {
+            int profile = format.containsKey(MediaFormat.KEY_AAC_PROFILE)
+                    ? format.getInteger(MediaFormat.KEY_AAC_PROFILE)
+                    : MediaCodecInfo.CodecProfileLevel.AACObjectLC;
+            if (profile == MediaCodecInfo.CodecProfileLevel.AACObjectHE) {
+                encoding = AudioFormat.ENCODING_AAC_HE_V1;
+            } else if (profile == MediaCodecInfo.CodecProfileLevel.AACObjectHE_PS) {
+                encoding = AudioFormat.ENCODING_AAC_HE_V2;
+            } else {
+                encoding = AudioFormat.ENCODING_AAC_LC;
+            }
+        } else {
+            return null;
+        }
+
+        int channelMask;
+        int channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        if (channels == 1) {
+            channelMask = AudioFormat.CHANNEL_OUT_MONO;
+        } else if (channels == 2) {
+            channelMask = AudioFormat.CHANNEL_OUT_STEREO;
+        } else {
+            return null;
+        }
+
+        return new AudioFormat.Builder()
+                .setEncoding(encoding)
+                .setSampleRate(format.getInteger(MediaFormat.KEY_SAMPLE_RATE))
+                .setChannelMask(channelMask)
+                .build();
+    }
+
+    /** Called when the track can no longer be offloaded; caller should switch paths. */
+    public void setOnFailureListener(Runnable listener) {
+        onFailure = listener;
+    }
+
+    @Override
+    public void start() {
+        playing = true;
+        feeder.post(() -> {
+            if (completed) {
+                // Like MediaPlayer, starting after completion plays from the beginning
+                applySeek(0);
+            }
+            track.play();
+            feed();
+        });
+    }
+
+    @Override
+    public void pause() {
+        playing = false;
+        feeder.post(track::pause);
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    @Override
+    public void seekTo(int position) {
+        seekTargetMs = position;
+        feeder.post(() -> applySeek(position));
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        int target = seekTargetMs;
+        if (target >= 0) return target;
+        if (completed) return durationMs;
+        long frames = track.getPlaybackHeadPosition() & 0xFFFFFFFFL;
+        long position = basePositionMs + frames * 1000 / track.getSampleRate();
+        return (int) Math.min(durationMs, position);
+    }
+
+    @Override
+    public int getDuration() {
+        return durationMs;
+    }
+
+    @Override
+    public boolean setSpeed(float speed) {
+        try {
+            track.setPlaybackParams(track.getPlaybackParams().setSpeed(speed));
+            this.speed = speed;
+            return true;
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            Log.d(TAG, "Offload track cannot play at " + speed + "x");
+            return false;
+        }
+    }
+
+    @Override
+    public float getSpeed() {
+        return speed;
+    }
+
+    @Override
+    public void setOnCompletionListener(Runnable listener) {
+        onCompletion = listener;
+    }
+
+    @Override
+    public boolean isOffloaded() {
+        return true;
+    }
+
+    @Override
+    public long getOffloadedFrames() {
+        return offloadedFrames;
+    }
+
+    @Override
+    public void release() {
+        playing = false;
+        onCompletion = null;
+        onFailure = null;
+        feeder.post(() -> {
+            track.unregisterStreamEventCallback(streamCallback);
+            track.release();
+            extractor.release();
+        });
+        feederThread.quitSafely();
+    }
+
+    // --- Feeder thread ---
+
+    private void applySeek(int position) {
+        track.pause();
+        track.flush(); // also resets the playback head to 0
+        extractor.seekTo(position * 1000L, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        long sampleTimeUs = extractor.getSampleTime();
+        basePositionMs = (sampleTimeUs >= 0) ? (int) (sampleTimeUs / 1000) : position;
+        sample.limit(0);
+        endOfStream = false;
+        completed = false;
+        if (seekTargetMs == position) {
+            seekTargetMs = -1;
+        }
+        if (playing) {
+            track.play();
+            feed();
+        }
+    }
+
+    /** Write encoded frames until the track is full; onDataRequest resumes us. */
+    private void feed() {
+        while (playing && !endOfStream) {
+            if (!sample.hasRemaining()) {
+                sample.clear();
+                int size = extractor.readSampleData(sample, 0);
+                if (size < 0) {
+                    // Let the track drain; onPresentationEnded reports completion
+                    endOfStream = true;
+                    track.stop();
+                    return;
+                }
+                sample.position(0);
+                sample.limit(size);
+                extractor.advance();
+                offloadedFrames++;
+            }
+
+            int written = track.write(sample, sample.remaining(), AudioTrack.WRITE_NON_BLOCKING);
+            if (written < 0) {
+                Log.w(TAG, "Offload write failed: " + written);
+                fail();
+                return;
+            }
+            if (sample.hasRemaining()) return;
+        }
+    }
+
+    private void fail() {
+        playing = false;
+        postToMain(onFailure);
+    }
+
+    private void postToMain(Runnable action) {
+        if (action != null) {
+            mainHandler.post(action);
+        }
+    }
+}
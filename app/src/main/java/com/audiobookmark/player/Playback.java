@@ -0,0 +1,37 @@
+package com.audiobookmark.player;
+
+/**
+ * The subset of player controls MainActivity needs, so the MediaPlayer path
+ * and the compressed-offload AudioTrack path can be swapped at runtime.
+ * Positions and durations are in milliseconds.
+ */
+public interface Playback {
+
+    void start();
+
+    void pause();
+
+    boolean isPlaying();
+
+    void seekTo(int position);
+
+    int getCurrentPosition();
+
+    int getDuration();
+
+    /** Returns false if this path cannot play at the given speed. */
+    boolean setSpeed(float speed);
+
+    /** Speed last accepted by setSpeed(), 1.0 until then. */
+    float getSpeed();
+
+    void setOnCompletionListener(Runnable listener);
+
+    /** True if decoding happens off the app processor (compressed offload). */
+    boolean isOffloaded();
+
+    /** Compressed frames handed to the audio DSP; 0 when the app side decodes. */
+    long getOffloadedFrames();
+
+    void release();
+}
@@ -0,0 +1,47 @@
+package com.audiobookmark.player;
+
+import android.os.Process;
+import android.os.SystemClock;
+import java.util.Locale;
+
+/**
+ * Wall time played and app CPU time spent while playing, for comparing the
+ * MediaPlayer and offload paths over a long session. CPU is for the whole app
+ * process; MediaPlayer decodes in the media server, so compare overall
+ * battery use too, not just this number.
+ */
+public class PlaybackStats {
+
+    private long playedMs = 0;
+    private long cpuMs = 0;
+    private long startedAt = -1;
+    private long cpuAtStart = 0;
+
+    public void onStart() {
+        if (startedAt >= 0) return;
+        startedAt = SystemClock.elapsedRealtime();
+        cpuAtStart = Process.getElapsedCpuTime();
+    }
+
+    public void onStop() {
+        if (startedAt < 0) return;
+        playedMs += SystemClock.elapsedRealtime() - startedAt;
+        cpuMs += Process.getElapsedCpuTime() - cpuAtStart;
+        startedAt = -1;
+    }
+
+    public long getPlayedMs() {
+        return playedMs;
+    }
+
+    public long getCpuMs() {
+        return cpuMs;
+    }
+
+    public String describe(Playback playback) {
+        double cpuPercent = (playedMs > 0) ? cpuMs * 100.0 / playedMs : 0;
+        return String.format(Locale.US, "mode=%s played=%ds appCpu=%dms (%.2f%%) offloadedFrames=%d",
+                playback.isOffloaded() ? "offload" : "mediaplayer",
+                playedMs / 1000, cpuMs, cpuPercent, playback.getOffloadedFrames());
+    }
+}
@@ -0,0 +1,20 @@
+package com.audiobookmark.player;
+
+import java.util.Locale;
+
+/**
+ * hh:mm:ss formatting shared by the player UI, the Keep note and exported
+ * chapter titles, so a bookmark reads the same everywhere.
+ */
+final class TimeFormat {
+
+    private TimeFormat() {}
+
+    static String format(int milliseconds) {
+        int seconds = milliseconds / 1000;
+        int hours = seconds / 3600;
+        int minutes = (seconds % 3600) / 60;
+        int secs = seconds % 60;
+        return String.format(Locale.US, "%02d:%02d:%02d", hours, minutes, secs);
+    }
+}
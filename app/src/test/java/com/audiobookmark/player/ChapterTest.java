@@ -0,0 +1,50 @@
+package com.audiobookmark.player;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class ChapterTest {
+
+    @Test
+    public void bookmarksBecomeBackToBackChapters() {
+        List<Chapter> chapters = Chapter.fromBookmarks(Arrays.asList(61_000, 5_000, 61_000), 120_000);
+
+        assertEquals(3, chapters.size());
+        assertChapter(chapters.get(0), 0, 5_000, "Start");
+        assertChapter(chapters.get(1), 5_000, 61_000, "00:00:05");
+        assertChapter(chapters.get(2), 61_000, 120_000, "00:01:01");
+    }
+
+    @Test
+    public void bookmarkAtZeroReplacesStartChapter() {
+        List<Chapter> chapters = Chapter.fromBookmarks(Arrays.asList(0, 30_000), 60_000);
+
+        assertEquals(2, chapters.size());
+        assertChapter(chapters.get(0), 0, 30_000, "00:00:00");
+    }
+
+    @Test
+    public void bookmarksOutsideTheFileAreDropped() {
+        List<Chapter> chapters = Chapter.fromBookmarks(Arrays.asList(-5, 60_000, 90_000), 60_000);
+
+        assertEquals(1, chapters.size());
+        assertChapter(chapters.get(0), 0, 60_000, "Start");
+    }
+
+    @Test
+    public void noBookmarksGivesOneChapter() {
+        List<Chapter> chapters = Chapter.fromBookmarks(Collections.<Integer>emptyList(), 60_000);
+
+        assertEquals(1, chapters.size());
+    }
+
+    private static void assertChapter(Chapter chapter, int start, int end, String title) {
+        assertEquals(start, chapter.startMs);
+        assertEquals(end, chapter.endMs);
+        assertEquals(title, chapter.title);
+    }
+}
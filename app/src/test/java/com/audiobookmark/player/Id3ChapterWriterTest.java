@@ -0,0 +1,229 @@
+package com.audiobookmark.player;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class Id3ChapterWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void addsTagToFileWithoutOne() throws IOException {
+        byte[] audio = audioPayload(200_000);
+        List<Chapter> chapters = Chapter.fromBookmarks(Arrays.asList(10_000, 70_000), 120_000);
+
+        byte[] output = rewrite(audio, chapters);
+
+        assertEquals("ID3", new String(output, 0, 3, StandardCharsets.ISO_8859_1));
+        assertEquals(3, output[3]);
+        List<Frame> frames = frames(output);
+        assertEquals(4, frames.size());
+
+        Frame toc = frames.get(0);
+        assertEquals("CTOC", toc.id);
+        assertEquals(0x03, toc.body[4]); // top-level, ordered
+        assertEquals(3, toc.body[5]);
+
+        assertChapter(frames.get(1), "ch0", 0, 10_000, "Start");
+        assertChapter(frames.get(2), "ch1", 10_000, 70_000, "00:00:10");
+        assertChapter(frames.get(3), "ch2", 70_000, 120_000, "00:01:10");
+
+        assertArrayEquals(audio, Arrays.copyOfRange(output, tagEnd(output), output.length));
+    }
+
+    @Test
+    public void keepsOtherFramesAndReplacesOldChapters() throws IOException {
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        byte[] title = frame("TIT2", "\0My Book".getBytes(StandardCharsets.ISO_8859_1), 4);
+        byte[] oldChapter = frame("CHAP", "old\0".getBytes(StandardCharsets.ISO_8859_1), 4);
+        byte[] padding = new byte[64];
+        input.write(tagHeader(4, title.length + oldChapter.length + padding.length));
+        input.write(title);
+        input.write(oldChapter);
+        input.write(padding);
+        byte[] audio = audioPayload(50_000);
+        input.write(audio);
+
+        byte[] output = rewrite(input.toByteArray(), Chapter.fromBookmarks(Collections.singletonList(5_000), 60_000));
+
+        assertEquals(4, output[3]);
+        List<Frame> frames = frames(output);
+        assertEquals("TIT2", frames.get(0).id);
+        assertEquals("CTOC", frames.get(1).id);
+        assertEquals(2, countFrames(frames, "CHAP"));
+        assertArrayEquals(audio, Arrays.copyOfRange(output, tagEnd(output), output.length));
+    }
+
+    @Test
+    public void rewritingAnExportDoesNotDuplicateChapters() throws IOException {
+        byte[] audio = audioPayload(10_000);
+        byte[] once = rewrite(audio, Chapter.fromBookmarks(Arrays.asList(1_000, 2_000), 60_000));
+        byte[] twice = rewrite(once, Chapter.fromBookmarks(Collections.singletonList(3_000), 60_000));
+
+        List<Frame> frames = frames(twice);
+        assertEquals(1, countFrames(frames, "CTOC"));
+        assertEquals(2, countFrames(frames, "CHAP"));
+        assertArrayEquals(audio, Arrays.copyOfRange(twice, tagEnd(twice), twice.length));
+    }
+
+    @Test
+    public void manyChaptersUseNestedTables() throws IOException {
+        List<Integer> bookmarks = new ArrayList<>();
+        for (int i = 1; i < 600; i++) {
+            bookmarks.add(i * 1_000);
+        }
+
+        byte[] output = rewrite(audioPayload(1_000), Chapter.fromBookmarks(bookmarks, 600_000));
+
+        List<Frame> frames = frames(output);
+        assertEquals(4, countFrames(frames, "CTOC")); // top level + 3 tables
+        assertEquals(600, countFrames(frames, "CHAP"));
+        assertEquals(3, frames.get(0).body[5]);
+    }
+
+    @Test
+    public void rejectsId3v22() throws IOException {
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        input.write(tagHeader(2, 0));
+        input.write(audioPayload(100));
+
+        try {
+            rewrite(input.toByteArray(), Chapter.fromBookmarks(Collections.<Integer>emptyList(), 1_000));
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("ID3v2.2"));
+        }
+    }
+
+    @Test
+    public void detectsMp3() {
+        assertTrue(Id3ChapterWriter.isMp3("ID3".getBytes(StandardCharsets.ISO_8859_1)));
+        assertTrue(Id3ChapterWriter.isMp3(new byte[]{(byte) 0xFF, (byte) 0xFB, 0, 0}));
+        assertTrue(!Id3ChapterWriter.isMp3("....ftyp".getBytes(StandardCharsets.ISO_8859_1)));
+        // ADTS AAC shares the sync word
+        assertTrue(!Id3ChapterWriter.isMp3(new byte[]{(byte) 0xFF, (byte) 0xF1, 0, 0}));
+        assertTrue(!Id3ChapterWriter.isMp3(new byte[]{(byte) 0xFF, (byte) 0xF9, 0, 0}));
+    }
+
+    // --- Helpers ---
+
+    private byte[] rewrite(byte[] input, List<Chapter> chapters) throws IOException {
+        File source = folder.newFile();
+        File target = folder.newFile();
+        Files.write(source.toPath(), input);
+        try (FileChannel in = new FileInputStream(source).getChannel();
+             FileChannel out = new FileOutputStream(target).getChannel()) {
+            Id3ChapterWriter.write(in, out, chapters);
+        }
+        return Files.readAllBytes(target.toPath());
+    }
+
+    /** MPEG frame sync followed by noise. */
+    private static byte[] audioPayload(int size) {
+        byte[] audio = new byte[size];
+        new Random(7).nextBytes(audio);
+        audio[0] = (byte) 0xFF;
+        audio[1] = (byte) 0xFB;
+        return audio;
+    }
+
+    private static byte[] tagHeader(int version, int size) {
+        return new byte[]{'I', 'D', '3', (byte) version, 0, 0,
+                (byte) ((size >>> 21) & 0x7F), (byte) ((size >>> 14) & 0x7F),
+                (byte) ((size >>> 7) & 0x7F), (byte) (size & 0x7F)};
+    }
+
+    private static byte[] frame(String id, byte[] body, int version) {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write(id.getBytes(StandardCharsets.ISO_8859_1), 0, 4);
+        int size = body.length;
+        if (version == 4) {
+            size = ((size & 0xFE00000) << 3) | ((size & 0x1FC000) << 2) | ((size & 0x3F80) << 1) | (size & 0x7F);
+        }
+        frame.write(size >>> 24);
+        frame.write(size >>> 16);
+        frame.write(size >>> 8);
+        frame.write(size);
+        frame.write(0);
+        frame.write(0);
+        frame.write(body, 0, body.length);
+        return frame.toByteArray();
+    }
+
+    private static int tagEnd(byte[] file) {
+        return 10 + Id3ChapterWriter.readSyncsafe(file, 6);
+    }
+
+    private static class Frame {
+        final String id;
+        final byte[] body;
+
+        Frame(String id, byte[] body) {
+            this.id = id;
+            this.body = body;
+        }
+    }
+
+    private static List<Frame> frames(byte[] file) {
+        return frames(file, 10, tagEnd(file), file[3]);
+    }
+
+    private static List<Frame> frames(byte[] data, int start, int end, int version) {
+        List<Frame> frames = new ArrayList<>();
+        int p = start;
+        while (p + 10 <= end && data[p] != 0) {
+            String id = new String(data, p, 4, StandardCharsets.ISO_8859_1);
+            int size = (version == 4) ? Id3ChapterWriter.readSyncsafe(data, p + 4) : readInt(data, p + 4);
+            frames.add(new Frame(id, Arrays.copyOfRange(data, p + 10, p + 10 + size)));
+            p += 10 + size;
+        }
+        return frames;
+    }
+
+    private static int countFrames(List<Frame> frames, String id) {
+        int count = 0;
+        for (Frame frame : frames) {
+            if (frame.id.equals(id)) count++;
+        }
+        return count;
+    }
+
+    private static void assertChapter(Frame frame, String elementId, int start, int end, String title) {
+        assertEquals("CHAP", frame.id);
+        int p = elementId.length() + 1;
+        assertEquals(elementId, new String(frame.body, 0, elementId.length(), StandardCharsets.ISO_8859_1));
+        assertEquals(start, readInt(frame.body, p));
+        assertEquals(end, readInt(frame.body, p + 4));
+        assertEquals(0xFFFFFFFF, readInt(frame.body, p + 8));
+
+        List<Frame> sub = frames(frame.body, p + 16, frame.body.length, 3);
+        assertEquals(1, sub.size());
+        assertEquals("TIT2", sub.get(0).id);
+        assertEquals(title, new String(sub.get(0).body, 1, sub.get(0).body.length - 1, StandardCharsets.ISO_8859_1));
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,139 @@
+package com.audiobookmark.player;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+public class ListeningCoverageTest {
+
+    private static final int HOUR_MS = 60 * 60 * 1000;
+
+    @Test
+    public void playbackTicksCollapseIntoOneRange() {
+        ListeningCoverage coverage = new ListeningCoverage();
+        for (int position = 0; position < 60_000; position += 100) {
+            coverage.add(position, position + 100);
+        }
+
+        assertEquals(Collections.singletonMap(0, 60_000), coverage.getIntervals());
+        assertEquals(60_000, coverage.getHeardMs());
+    }
+
+    @Test
+    public void overlappingRangesAreNotCountedTwice() {
+        ListeningCoverage coverage = new ListeningCoverage();
+        coverage.add(10_000, 20_000);
+        coverage.add(15_000, 25_000);
+        coverage.add(12_000, 18_000);
+
+        assertEquals(Collections.singletonMap(10_000, 25_000), coverage.getIntervals());
+        assertEquals(15_000, coverage.getHeardMs());
+    }
+
+    @Test
+    public void rangeSpanningSeveralRangesJoinsThem() {
+        ListeningCoverage coverage = new ListeningCoverage();
+        coverage.add(0, 5_000);
+        coverage.add(10_000, 15_000);
+        coverage.add(20_000, 25_000);
+        coverage.add(4_000, 21_000);
+
+        assertEquals(Collections.singletonMap(0, 25_000), coverage.getIntervals());
+        assertEquals(25_000, coverage.getHeardMs());
+    }
+
+    @Test
+    public void separateRangesStaySeparate() {
+        ListeningCoverage coverage = new ListeningCoverage();
+        coverage.add(30_000, 40_000);
+        coverage.add(0, 10_000);
+
+        Map<Integer, Integer> intervals = coverage.getIntervals();
+        assertEquals(2, intervals.size());
+        assertEquals(Integer.valueOf(10_000), intervals.get(0));
+        assertEquals(Integer.valueOf(40_000), intervals.get(30_000));
+        assertEquals(20_000, coverage.getHeardMs());
+    }
+
+    @Test
+    public void emptyAndBackwardRangesAreIgnored() {
+        ListeningCoverage coverage = new ListeningCoverage();
+        coverage.add(5_000, 5_000);
+        coverage.add(9_000, 1_000);
+
+        assertTrue(coverage.isEmpty());
+        assertEquals(0, coverage.getHeardMs());
+    }
+
+    @Test
+    public void percentOfDuration() {
+        ListeningCoverage coverage = new ListeningCoverage();
+        coverage.add(0, HOUR_MS / 4);
+
+        assertEquals(25, coverage.getPercent(HOUR_MS));
+        assertEquals(0, coverage.getPercent(0));
+    }
+
+    @Test
+    public void firstUnheardFindsEarliestGap() {
+        ListeningCoverage coverage = new ListeningCoverage();
+        assertEquals(0, coverage.getFirstUnheard(HOUR_MS));
+
+        coverage.add(0, 60_000);
+        coverage.add(120_000, 180_000);
+        assertEquals(60_000, coverage.getFirstUnheard(HOUR_MS));
+
+        coverage.add(60_000, 120_000);
+        assertEquals(180_000, coverage.getFirstUnheard(HOUR_MS));
+
+        coverage.add(180_000, HOUR_MS);
+        assertEquals(-1, coverage.getFirstUnheard(HOUR_MS));
+    }
+
+    @Test
+    public void firstUnheardIgnoresGapsBelowMergeThreshold() {
+        ListeningCoverage coverage = new ListeningCoverage();
+        coverage.add(ListeningCoverage.MERGE_GAP_MS / 2, HOUR_MS);
+
+        assertEquals(-1, coverage.getFirstUnheard(HOUR_MS));
+    }
+
+    @Test
+    public void rangeCountStaysBoundedUnderRandomSeeking() {
+        ListeningCoverage coverage = new ListeningCoverage();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            int start = random.nextInt(10 * HOUR_MS);
+            coverage.add(start, start + 5_000);
+        }
+
+        assertTrue(coverage.getIntervals().size() <= ListeningCoverage.MAX_INTERVALS);
+        assertEquals(sumOfRanges(coverage), coverage.getHeardMs());
+    }
+
+    @Test
+    public void listRoundTrip() {
+        ListeningCoverage coverage = new ListeningCoverage();
+        coverage.add(0, 10_000);
+        coverage.add(30_000, 40_000);
+
+        assertEquals(Arrays.asList(0, 10_000, 30_000, 40_000), coverage.toList());
+
+        ListeningCoverage restored = ListeningCoverage.fromList(coverage.toList());
+        assertEquals(coverage.getIntervals(), restored.getIntervals());
+        assertEquals(coverage.getHeardMs(), restored.getHeardMs());
+    }
+
+    private static long sumOfRanges(ListeningCoverage coverage) {
+        long total = 0;
+        for (Map.Entry<Integer, Integer> interval : coverage.getIntervals().entrySet()) {
+            total += interval.getValue() - interval.getKey();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,97 @@
+package com.audiobookmark.player;
+
+import static com.audiobookmark.player.PlayerTestSupport.DEFAULT_DURATION_MS;
+import static com.audiobookmark.player.PlayerTestSupport.PREF_BOOKMARKS;
+import static com.audiobookmark.player.PlayerTestSupport.allocatedBytes;
+import static com.audiobookmark.player.PlayerTestSupport.bestTimeMillis;
+import static com.audiobookmark.player.PlayerTestSupport.bookmarks;
+import static com.audiobookmark.player.PlayerTestSupport.prefs;
+import static com.audiobookmark.player.PlayerTestSupport.registerMedia;
+import static com.audiobookmark.player.PlayerTestSupport.seedState;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.net.Uri;
+import android.widget.TextView;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Time and allocation budgets for the state paths with a 10k-bookmark book.
+ *
+ * The limits are loose on purpose: they sit far above what a linear
+ * implementation needs on a CI runner, but an accidental O(n^2) (string
+ * concatenation in a loop, list lookups per bookmark) blows straight through
+ * them at this size.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MainActivityBudgetTest {
+
+    private static final int BOOKMARK_COUNT = 10_000;
+
+    private static final long SAVE_BUDGET_MS = 250;
+    private static final long RESTORE_BUDGET_MS = 1_000;
+    private static final long UPDATE_LIST_BUDGET_MS = 500;
+    private static final long BYTES_PER_BOOKMARK_BUDGET = 4 * 1024;
+
+    private static final int WARMUPS = 3;
+    private static final int RUNS = 5;
+
+    private MainActivity activity;
+
+    @Before
+    public void setUp() {
+        Uri book = registerMedia("long_book.m4b");
+        int[] seeded = bookmarks(BOOKMARK_COUNT, DEFAULT_DURATION_MS);
+        seedState(book, "long_book", 0, seeded, BOOKMARK_COUNT / 2);
+        activity = Robolectric.buildActivity(MainActivity.class).setup().get();
+    }
+
+    @Test
+    public void restoreLoadsAllBookmarks() throws JSONException {
+        String list = ((TextView) activity.findViewById(R.id.bookmarksListText)).getText().toString();
+        assertEquals(BOOKMARK_COUNT, list.split("\n").length);
+
+        activity.saveState();
+        assertEquals(BOOKMARK_COUNT, new JSONArray(prefs().getString(PREF_BOOKMARKS, null)).length());
+    }
+
+    @Test
+    public void saveStateWithinBudget() {
+        assertTimeBudget("saveState", SAVE_BUDGET_MS, activity::saveState);
+        assertAllocationBudget("saveState", activity::saveState);
+    }
+
+    @Test
+    public void restoreStateWithinBudget() {
+        assertTimeBudget("restoreState", RESTORE_BUDGET_MS, activity::restoreState);
+        assertAllocationBudget("restoreState", activity::restoreState);
+    }
+
+    @Test
+    public void updateBookmarksListWithinBudget() {
+        assertTimeBudget("updateBookmarksList", UPDATE_LIST_BUDGET_MS, activity::updateBookmarksList);
+        assertAllocationBudget("updateBookmarksList", activity::updateBookmarksList);
+    }
+
+    private static void assertTimeBudget(String name, long budgetMs, Runnable action) {
+        long elapsedMs = bestTimeMillis(action, WARMUPS, RUNS);
+        assertTrue(name + " took " + elapsedMs + " ms for " + BOOKMARK_COUNT
+                + " bookmarks, budget is " + budgetMs + " ms", elapsedMs <= budgetMs);
+    }
+
+    private static void assertAllocationBudget(String name, Runnable action) {
+        action.run(); // warm up class loading and lazy init
+        long bytes = allocatedBytes(action);
+        assumeTrue("per-thread allocation counters not available", bytes >= 0);
+        long budget = BYTES_PER_BOOKMARK_BUDGET * BOOKMARK_COUNT;
+        assertTrue(name + " allocated " + bytes + " bytes for " + BOOKMARK_COUNT
+                + " bookmarks, budget is " + budget + " bytes", bytes <= budget);
+    }
+}
@@ -0,0 +1,359 @@
+package com.audiobookmark.player;
+
+import static com.audiobookmark.player.PlayerTestSupport.PREF_BOOKMARKS;
+import static com.audiobookmark.player.PlayerTestSupport.PREF_FILE_URI;
+import static com.audiobookmark.player.PlayerTestSupport.PREF_SHARED_BOOKMARKS;
+import static com.audiobookmark.player.PlayerTestSupport.prefs;
+import static com.audiobookmark.player.PlayerTestSupport.registerMedia;
+import static com.audiobookmark.player.PlayerTestSupport.registerMissingMedia;
+import static com.audiobookmark.player.PlayerTestSupport.seedAccount;
+import static com.audiobookmark.player.PlayerTestSupport.seedCoverage;
+import static com.audiobookmark.player.PlayerTestSupport.seedOffloadEnabled;
+import static com.audiobookmark.player.PlayerTestSupport.seedState;
+import static com.audiobookmark.player.PlayerTestSupport.viewIntent;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.AlertDialog;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Looper;
+import android.widget.TextView;
+import java.time.Duration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.shadows.ShadowAlertDialog;
+import org.robolectric.shadows.ShadowSystemClock;
+import org.robolectric.shadows.ShadowToast;
+
+/**
+ * Drives MainActivity through the paths that have broken before: recreation,
+ * "Open with" while bookmarks are unsaved, rapid file switching and the
+ * share-to-Keep round trip that defers loading the pending file to onResume().
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MainActivityLifecycleTest {
+
+    private static final String KEEP_PACKAGE = "com.google.android.keep";
+
+    // --- Recreation ---
+
+    @Test
+    public void recreateAfterIconLaunchKeepsFileAndBookmarks() {
+        Uri book = registerMedia("bookA.mp3");
+        seedState(book, "bookA", 60_000, new int[]{1_000, 2_000}, 0);
+
+        ActivityController<MainActivity> controller = Robolectric.buildActivity(MainActivity.class).setup();
+        controller.get().findViewById(R.id.addBookmarkButton).performClick();
+        assertEquals(3, bookmarkLines(controller.get()));
+
+        controller.recreate();
+        MainActivity activity = controller.get();
+
+        assertEquals("bookA", text(activity, R.id.fileNameText));
+        assertEquals(3, bookmarkLines(activity));
+        assertEquals(book.toString(), prefs().getString(PREF_FILE_URI, null));
+    }
+
+    @Test
+    public void recreateAfterOpenWithReloadsPlayer() {
+        Uri book = registerMedia("bookA.mp3");
+
+        ActivityController<MainActivity> controller =
+                Robolectric.buildActivity(MainActivity.class, viewIntent(book)).setup();
+        assertEquals("bookA", text(controller.get(), R.id.fileNameText));
+
+        // The recreated activity sees the same VIEW intent for the file it already saved
+        controller.recreate();
+        MainActivity activity = controller.get();
+
+        assertEquals("bookA", text(activity, R.id.fileNameText));
+        activity.findViewById(R.id.playPauseButton).performClick();
+        assertEquals("Pause", text(activity, R.id.playPauseButton));
+    }
+
+    @Test
+    public void repeatedRecreateDoesNotLoseState() {
+        Uri book = registerMedia("bookA.mp3");
+        seedState(book, "bookA", 0, new int[]{5_000, 10_000, 15_000}, 1);
+
+        ActivityController<MainActivity> controller = Robolectric.buildActivity(MainActivity.class).setup();
+        for (int i = 0; i < 20; i++) {
+            controller.recreate();
+        }
+
+        assertEquals("bookA", text(controller.get(), R.id.fileNameText));
+        assertEquals(3, bookmarkLines(controller.get()));
+        assertEquals("[5000,10000,15000]", prefs().getString(PREF_BOOKMARKS, null));
+        assertEquals("[0]", prefs().getString(PREF_SHARED_BOOKMARKS, null));
+    }
+
+    // --- File switching ---
+
+    @Test
+    public void rapidFileSwitchingWithoutBookmarksEndsOnLastFile() {
+        Uri first = registerMedia("book0.mp3");
+        ActivityController<MainActivity> controller =
+                Robolectric.buildActivity(MainActivity.class, viewIntent(first)).setup();
+
+        Uri last = first;
+        for (int i = 1; i < 100; i++) {
+            last = registerMedia("book" + i + ".mp3");
+            controller.newIntent(viewIntent(last));
+        }
+
+        assertNull(ShadowAlertDialog.getLatestAlertDialog());
+        assertEquals("book99", text(controller.get(), R.id.fileNameText));
+        assertEquals(last.toString(), prefs().getString(PREF_FILE_URI, null));
+        assertEquals("[]", prefs().getString(PREF_BOOKMARKS, null));
+    }
+
+    @Test
+    public void rapidFileSwitchingWithUnsavedBookmarksKeepsLatestPendingFile() {
+        Uri bookA = registerMedia("bookA.mp3");
+        Uri bookB = registerMedia("bookB.mp3");
+        Uri bookC = registerMedia("bookC.mp3");
+        seedState(bookA, "bookA", 0, new int[]{1_000, 2_000}, 0);
+
+        ActivityController<MainActivity> controller = Robolectric.buildActivity(MainActivity.class).setup();
+        controller.newIntent(viewIntent(bookB));
+        controller.newIntent(viewIntent(bookC));
+
+        // Nothing is loaded until the user answers the dialog
+        assertEquals("bookA", text(controller.get(), R.id.fileNameText));
+        assertEquals(bookA.toString(), prefs().getString(PREF_FILE_URI, null));
+
+        clickButton(ShadowAlertDialog.getLatestAlertDialog(), AlertDialog.BUTTON_NEGATIVE);
+
+        assertEquals("bookC", text(controller.get(), R.id.fileNameText));
+        assertEquals(0, bookmarkLines(controller.get()));
+        assertEquals(bookC.toString(), prefs().getString(PREF_FILE_URI, null));
+    }
+
+    @Test
+    public void reopeningSameFileKeepsBookmarks() {
+        Uri bookA = registerMedia("bookA.mp3");
+        seedState(bookA, "bookA", 0, new int[]{1_000, 2_000}, 0);
+
+        ActivityController<MainActivity> controller = Robolectric.buildActivity(MainActivity.class).setup();
+        controller.newIntent(viewIntent(bookA));
+
+        assertNull(ShadowAlertDialog.getLatestAlertDialog());
+        assertEquals(2, bookmarkLines(controller.get()));
+    }
+
+    // --- Keep share round trip ---
+
+    @Test
+    public void saveFirstSharesOldBookmarksThenLoadsPendingFileOnResume() {
+        Uri bookA = registerMedia("bookA.mp3");
+        Uri bookB = registerMedia("bookB.mp3");
+        seedState(bookA, "bookA", 0, new int[]{1_000, 61_000, 3_661_000}, 0);
+        seedAccount("listener@gmail.com");
+
+        ActivityController<MainActivity> controller =
+                Robolectric.buildActivity(MainActivity.class, viewIntent(bookB)).setup();
+        MainActivity activity = controller.get();
+
+        clickButton(ShadowAlertDialog.getLatestAlertDialog(), AlertDialog.BUTTON_POSITIVE);
+
+        Intent share = shadowOf(activity).getNextStartedActivity();
+        assertNotNull(share);
+        assertEquals(Intent.ACTION_SEND, share.getAction());
+        assertEquals(KEEP_PACKAGE, share.getPackage());
+        assertEquals("bookA", share.getStringExtra(Intent.EXTRA_SUBJECT));
+        assertEquals("#Edit-times\n\n00:00:01\n00:01:01\n01:01:01\n",
+                share.getStringExtra(Intent.EXTRA_TEXT));
+
+        // Still on the old file while Keep is in front
+        assertEquals(bookA.toString(), prefs().getString(PREF_FILE_URI, null));
+        assertEquals("[0,1,2]", prefs().getString(PREF_SHARED_BOOKMARKS, null));
+
+        // Returning from Keep loads the file that was waiting
+        controller.pause().resume();
+
+        assertEquals("bookB", text(activity, R.id.fileNameText));
+        assertEquals(0, bookmarkLines(activity));
+        assertEquals(bookB.toString(), prefs().getString(PREF_FILE_URI, null));
+        assertEquals("[]", prefs().getString(PREF_BOOKMARKS, null));
+    }
+
+    @Test
+    public void resumeWhileSaveFirstDialogIsOpenDoesNotLoadPendingFile() {
+        Uri bookA = registerMedia("bookA.mp3");
+        Uri bookB = registerMedia("bookB.mp3");
+        seedState(bookA, "bookA", 0, new int[]{1_000}, 0);
+
+        ActivityController<MainActivity> controller = Robolectric.buildActivity(MainActivity.class).setup();
+        controller.newIntent(viewIntent(bookB));
+        controller.pause().resume();
+
+        assertEquals("bookA", text(controller.get(), R.id.fileNameText));
+        assertEquals(bookA.toString(), prefs().getString(PREF_FILE_URI, null));
+        assertTrue(ShadowAlertDialog.getLatestAlertDialog().isShowing());
+    }
+
+    @Test
+    public void sharedBookmarksSurviveRecreate() {
+        Uri bookA = registerMedia("bookA.mp3");
+        seedState(bookA, "bookA", 0, new int[]{1_000, 2_000}, 0);
+        seedAccount("listener@gmail.com");
+
+        ActivityController<MainActivity> controller = Robolectric.buildActivity(MainActivity.class).setup();
+        controller.get().findViewById(R.id.exportButton).performClick();
+        assertNotNull(shadowOf(controller.get()).getNextStartedActivity());
+
+        controller.recreate();
+        MainActivity activity = controller.get();
+        activity.findViewById(R.id.exportButton).performClick();
+
+        assertNull(shadowOf(activity).getNextStartedActivity());
+        assertEquals("All bookmarks already saved to Keep", ShadowToast.getTextOfLatestToast());
+    }
+
+    // --- Offload playback ---
+
+    @Test
+    public void offloadEnabledFallsBackToMediaPlayerWhenUnsupported() {
+        Uri bookA = registerMedia("bookA.mp3");
+        seedState(bookA, "bookA", 30_000, new int[0], 0);
+        seedOffloadEnabled(true);
+
+        MainActivity activity = Robolectric.buildActivity(MainActivity.class).setup().get();
+        activity.findViewById(R.id.playPauseButton).performClick();
+        assertEquals("Pause", text(activity, R.id.playPauseButton));
+
+        activity.findViewById(R.id.playPauseButton).performClick();
+        activity.findViewById(R.id.addBookmarkButton).performClick();
+        assertEquals(1, bookmarkLines(activity));
+    }
+
+    @Test
+    public void togglingOffloadKeepsFileAndBookmarks() {
+        Uri bookA = registerMedia("bookA.mp3");
+        seedState(bookA, "bookA", 30_000, new int[]{1_000, 2_000}, 0);
+
+        MainActivity activity = Robolectric.buildActivity(MainActivity.class).setup().get();
+        activity.findViewById(R.id.offloadSwitch).performClick();
+
+        assertEquals("bookA", text(activity, R.id.fileNameText));
+        assertEquals(2, bookmarkLines(activity));
+        activity.findViewById(R.id.playPauseButton).performClick();
+        assertEquals("Pause", text(activity, R.id.playPauseButton));
+    }
+
+    @Test
+    public void togglingOffloadWhilePlayingKeepsSpeedAndPlayState() {
+        Uri bookA = registerMedia("bookA.mp3");
+        seedState(bookA, "bookA", 30_000, new int[0], 0);
+
+        MainActivity activity = Robolectric.buildActivity(MainActivity.class).setup().get();
+        activity.findViewById(R.id.playPauseButton).performClick();
+        activity.findViewById(R.id.speedButton).performClick();
+        activity.findViewById(R.id.speedButton).performClick();
+        assertEquals(1.5f, activity.getPlayback().getSpeed(), 0f);
+
+        activity.findViewById(R.id.offloadSwitch).performClick();
+
+        assertTrue(activity.getPlayback().isPlaying());
+        assertEquals("Pause", text(activity, R.id.playPauseButton));
+        assertEquals(1.5f, activity.getPlayback().getSpeed(), 0f);
+        assertEquals("1.50x", text(activity, R.id.speedText));
+    }
+
+    @Test
+    public void speedChosenWhilePausedAppliesOnPlayAfterOffloadToggle() {
+        Uri bookA = registerMedia("bookA.mp3");
+        seedState(bookA, "bookA", 30_000, new int[0], 0);
+
+        MainActivity activity = Robolectric.buildActivity(MainActivity.class).setup().get();
+        activity.findViewById(R.id.speedButton).performClick();
+        activity.findViewById(R.id.speedButton).performClick();
+
+        // Setting the speed on a paused MediaPlayer would start it
+        assertFalse(activity.getPlayback().isPlaying());
+        assertEquals("Play", text(activity, R.id.playPauseButton));
+
+        activity.findViewById(R.id.offloadSwitch).performClick();
+        assertFalse(activity.getPlayback().isPlaying());
+
+        activity.findViewById(R.id.playPauseButton).performClick();
+        assertEquals("Pause", text(activity, R.id.playPauseButton));
+        assertEquals(1.5f, activity.getPlayback().getSpeed(), 0f);
+        assertEquals("1.50x", text(activity, R.id.speedText));
+    }
+
+    @Test
+    public void longGapBetweenTicksStillCountsAsHeard() {
+        Uri bookA = registerMedia("bookA.mp3", 60_000);
+        seedState(bookA, "bookA", 0, new int[0], 0);
+
+        MainActivity activity = Robolectric.buildActivity(MainActivity.class).setup().get();
+        activity.findViewById(R.id.playPauseButton).performClick();
+
+        // Screen off in offload mode: the next tick arrives ~30 s later, with no seek in between
+        ShadowSystemClock.advanceBy(Duration.ofSeconds(30));
+        shadowOf(Looper.getMainLooper()).idle();
+        activity.findViewById(R.id.playPauseButton).performClick();
+
+        assertEquals("Heard 50%", text(activity, R.id.coverageText));
+    }
+
+    // --- Missing files ---
+
+    @Test
+    public void unavailableFileWithUnsavedBookmarksOffersDiscard() {
+        Uri gone = registerMissingMedia("gone.mp3");
+        seedState(gone, "gone", 0, new int[]{1_000}, 0);
+
+        Robolectric.buildActivity(MainActivity.class).setup();
+        AlertDialog dialog = ShadowAlertDialog.getLatestAlertDialog();
+        assertTrue(dialog.isShowing());
+        assertEquals("File Unavailable", shadowOf(dialog).getTitle().toString());
+
+        clickButton(dialog, AlertDialog.BUTTON_NEGATIVE);
+
+        assertNull(prefs().getString(PREF_FILE_URI, null));
+        assertFalse(prefs().contains(PREF_BOOKMARKS));
+    }
+
+    @Test
+    public void failedLoadClearsPreviousCoverage() {
+        Uri bookA = registerMedia("bookA.mp3", 600_000);
+        Uri gone = registerMissingMedia("gone.mp3");
+        seedState(bookA, "bookA", 0, new int[0], 0);
+        seedCoverage(bookA, 0, 300_000);
+
+        ActivityController<MainActivity> controller = Robolectric.buildActivity(MainActivity.class).setup();
+        assertEquals("Heard 50%", text(controller.get(), R.id.coverageText));
+
+        controller.newIntent(viewIntent(gone));
+
+        assertEquals("Error loading file", ShadowToast.getTextOfLatestToast());
+        assertEquals("Heard 0%", text(controller.get(), R.id.coverageText));
+    }
+
+    // --- Helpers ---
+
+    private static void clickButton(AlertDialog dialog, int which) {
+        assertNotNull(dialog);
+        dialog.getButton(which).performClick();
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    private static String text(MainActivity activity, int id) {
+        return ((TextView) activity.findViewById(id)).getText().toString();
+    }
+
+    private static int bookmarkLines(MainActivity activity) {
+        String list = text(activity, R.id.bookmarksListText);
+        return list.isEmpty() ? 0 : list.split("\n").length;
+    }
+}
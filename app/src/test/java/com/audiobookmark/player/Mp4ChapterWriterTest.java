@@ -0,0 +1,318 @@
+package com.audiobookmark.player;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class Mp4ChapterWriterTest {
+
+    private static final int AUDIO_TRACK_ID = 1;
+    private static final int[] CHUNK_STARTS = {0, 3_000, 7_500};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void moovFirstShiftsAudioOffsets() throws IOException {
+        byte[] audio = audioPayload(10_000);
+        byte[] input = movie(audio, true);
+
+        byte[] output = rewrite(input, Chapter.fromBookmarks(Arrays.asList(20_000, 45_000), 60_000));
+
+        assertAudioChunksIntact(output, audio);
+        assertChapters(output, "Start", "00:00:20", "00:00:45");
+    }
+
+    @Test
+    public void mdatFirstKeepsAudioOffsets() throws IOException {
+        byte[] audio = audioPayload(10_000);
+        byte[] input = movie(audio, false);
+
+        byte[] output = rewrite(input, Chapter.fromBookmarks(Collections.singletonList(30_000), 60_000));
+
+        assertAudioChunksIntact(output, audio);
+        assertChapters(output, "Start", "00:00:30");
+        // Everything before moov is copied untouched
+        int moovOffset = topLevel(input, "moov")[0];
+        assertArrayEquals(Arrays.copyOf(input, moovOffset), Arrays.copyOf(output, moovOffset));
+    }
+
+    @Test
+    public void rewritingAnExportReplacesTheChapterTrack() throws IOException {
+        byte[] audio = audioPayload(10_000);
+        byte[] once = rewrite(movie(audio, true), Chapter.fromBookmarks(Arrays.asList(10_000, 20_000), 60_000));
+        byte[] twice = rewrite(once, Chapter.fromBookmarks(Collections.singletonList(40_000), 60_000));
+
+        int[] moov = topLevel(twice, "moov");
+        assertEquals(2, children(twice, moov[0], "trak").size());
+        assertAudioChunksIntact(twice, audio);
+        assertChapters(twice, "Start", "00:00:40");
+    }
+
+    @Test
+    public void dropsNeroChapterList() throws IOException {
+        byte[] audio = audioPayload(10_000);
+        byte[] title = box("titl", "My Book".getBytes(StandardCharsets.UTF_8));
+        byte[] udta = box("udta", box("chpl", new byte[9]), title);
+
+        byte[] output = rewrite(movie(audio, true, udta), Chapter.fromBookmarks(Collections.singletonList(30_000), 60_000));
+
+        int[] outputUdta = child(output, topLevel(output, "moov")[0], "udta");
+        assertNotNull(outputUdta);
+        assertNull(child(output, outputUdta[0], "chpl"));
+        int[] keptTitle = child(output, outputUdta[0], "titl");
+        assertArrayEquals(title, Arrays.copyOfRange(output, keptTitle[0], keptTitle[0] + keptTitle[1]));
+        assertAudioChunksIntact(output, audio);
+        assertChapters(output, "Start", "00:00:30");
+    }
+
+    @Test
+    public void nextTrackIdMovesPastChapterTrack() throws IOException {
+        byte[] output = rewrite(movie(audioPayload(10_000), true),
+                Chapter.fromBookmarks(Collections.<Integer>emptyList(), 60_000));
+
+        int[] mvhd = child(output, topLevel(output, "moov")[0], "mvhd");
+        int chapterTrackId = chapterTrackId(output);
+        assertEquals(AUDIO_TRACK_ID + 1, chapterTrackId);
+        assertEquals(chapterTrackId + 1, readInt(output, mvhd[0] + mvhd[1] - 4));
+    }
+
+    @Test
+    public void rejectsFragmentedFiles() throws IOException {
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        input.write(ftyp());
+        input.write(box("moov", mvhd(2)));
+        input.write(box("moof", new byte[8]));
+
+        try {
+            rewrite(input.toByteArray(), Chapter.fromBookmarks(Collections.<Integer>emptyList(), 1_000));
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("Fragmented"));
+        }
+    }
+
+    @Test
+    public void detectsMp4() {
+        assertTrue(Mp4ChapterWriter.isMp4(ftyp()));
+        assertFalse(Mp4ChapterWriter.isMp4("ID3\3\0\0\0\0\0\0".getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    // --- Assertions ---
+
+    /** Every audio chunk offset must still land on the same payload bytes. */
+    private static void assertAudioChunksIntact(byte[] file, byte[] audio) {
+        int[] stco = audioStco(file);
+        assertEquals(CHUNK_STARTS.length, readInt(file, stco[0] + 12));
+        int mdatPayload = readInt(file, stco[0] + 16) - CHUNK_STARTS[0];
+        for (int i = 0; i < CHUNK_STARTS.length; i++) {
+            int offset = readInt(file, stco[0] + 16 + i * 4);
+            assertEquals(mdatPayload + CHUNK_STARTS[i], offset);
+        }
+        assertArrayEquals(audio, Arrays.copyOfRange(file, mdatPayload, mdatPayload + audio.length));
+    }
+
+    private static void assertChapters(byte[] file, String... titles) {
+        int moov = topLevel(file, "moov")[0];
+        int chapterTrackId = chapterTrackId(file);
+
+        int[] chapterTrak = null;
+        for (int[] trak : children(file, moov, "trak")) {
+            if (trackId(file, trak) == chapterTrackId) chapterTrak = trak;
+        }
+        assertNotNull(chapterTrak);
+        int[] stbl = find(file, chapterTrak[0], "mdia", "minf", "stbl");
+        assertNull(child(file, stbl[0], "co64"));
+        int[] stsz = child(file, stbl[0], "stsz");
+        int[] stco = child(file, stbl[0], "stco");
+        assertEquals(titles.length, readInt(file, stsz[0] + 16));
+
+        int p = readInt(file, stco[0] + 16);
+        for (int i = 0; i < titles.length; i++) {
+            int size = readInt(file, stsz[0] + 20 + i * 4);
+            int length = ((file[p] & 0xFF) << 8) | (file[p + 1] & 0xFF);
+            assertEquals(titles[i], new String(file, p + 2, length, StandardCharsets.UTF_8));
+            p += size;
+        }
+        assertEquals(file.length, p);
+    }
+
+    private static int chapterTrackId(byte[] file) {
+        int moov = topLevel(file, "moov")[0];
+        int[] audio = children(file, moov, "trak").get(0);
+        int[] chap = find(file, audio[0], "tref", "chap");
+        assertNotNull(chap);
+        assertEquals(12, chap[1]);
+        return readInt(file, chap[0] + 8);
+    }
+
+    private static int[] audioStco(byte[] file) {
+        int moov = topLevel(file, "moov")[0];
+        for (int[] trak : children(file, moov, "trak")) {
+            if (trackId(file, trak) == AUDIO_TRACK_ID) {
+                return find(file, trak[0], "mdia", "minf", "stbl", "stco");
+            }
+        }
+        throw new AssertionError("No audio track");
+    }
+
+    private static int trackId(byte[] file, int[] trak) {
+        return readInt(file, child(file, trak[0], "tkhd")[0] + 20);
+    }
+
+    // --- Box navigation: {offset, size} pairs ---
+
+    private static int[] topLevel(byte[] file, String type) {
+        int p = 0;
+        while (p + 8 <= file.length) {
+            int size = readInt(file, p);
+            if (type.equals(new String(file, p + 4, 4, StandardCharsets.ISO_8859_1))) {
+                return new int[]{p, size};
+            }
+            p += size;
+        }
+        throw new AssertionError("No " + type);
+    }
+
+    private static List<int[]> children(byte[] file, int offset, String type) {
+        List<int[]> found = new ArrayList<>();
+        int end = offset + readInt(file, offset);
+        int p = offset + 8;
+        while (p + 8 <= end) {
+            int size = readInt(file, p);
+            if (type.equals(new String(file, p + 4, 4, StandardCharsets.ISO_8859_1))) {
+                found.add(new int[]{p, size});
+            }
+            p += size;
+        }
+        return found;
+    }
+
+    private static int[] child(byte[] file, int offset, String type) {
+        List<int[]> found = children(file, offset, type);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    private static int[] find(byte[] file, int offset, String... path) {
+        int[] box = {offset, readInt(file, offset)};
+        for (String type : path) {
+            box = child(file, box[0], type);
+            if (box == null) return null;
+        }
+        return box;
+    }
+
+    // --- Building a minimal audio-only movie ---
+
+    private byte[] rewrite(byte[] input, List<Chapter> chapters) throws IOException {
+        File source = folder.newFile();
+        File target = folder.newFile();
+        Files.write(source.toPath(), input);
+        try (FileChannel in = new FileInputStream(source).getChannel();
+             FileChannel out = new FileOutputStream(target).getChannel()) {
+            Mp4ChapterWriter.write(in, out, chapters);
+        }
+        return Files.readAllBytes(target.toPath());
+    }
+
+    private static byte[] audioPayload(int size) {
+        byte[] audio = new byte[size];
+        new Random(11).nextBytes(audio);
+        return audio;
+    }
+
+    /** ftyp + moov + mdat, or ftyp + mdat + moov when moovFirst is false. */
+    private static byte[] movie(byte[] audio, boolean moovFirst, byte[]... extraMoovBoxes) {
+        byte[] ftyp = ftyp();
+        byte[] mdat = box("mdat", audio);
+        // moov size doesn't depend on the offsets, so build once to measure
+        int moovSize = moov(0, extraMoovBoxes).length;
+        int mdatPayload = ftyp.length + (moovFirst ? moovSize : 0) + 8;
+        byte[] moov = moov(mdatPayload, extraMoovBoxes);
+        return moovFirst ? concat(ftyp, moov, mdat) : concat(ftyp, mdat, moov);
+    }
+
+    private static byte[] ftyp() {
+        return box("ftyp", "M4A \0\0\0\0M4A isom".getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static byte[] moov(int mdatPayload, byte[]... extraBoxes) {
+        byte[] stco = new byte[8 + CHUNK_STARTS.length * 4];
+        putInt(stco, 4, CHUNK_STARTS.length);
+        for (int i = 0; i < CHUNK_STARTS.length; i++) {
+            putInt(stco, 8 + i * 4, mdatPayload + CHUNK_STARTS[i]);
+        }
+        byte[] hdlr = new byte[25];
+        System.arraycopy("soun".getBytes(StandardCharsets.ISO_8859_1), 0, hdlr, 8, 4);
+
+        byte[] stbl = box("stbl", box("stco", stco));
+        byte[] mdia = box("mdia", box("mdhd", new byte[24]), box("hdlr", hdlr), box("minf", stbl));
+        byte[] trak = box("trak", tkhd(AUDIO_TRACK_ID), mdia);
+        return box("moov", mvhd(AUDIO_TRACK_ID + 1), trak, concat(extraBoxes));
+    }
+
+    private static byte[] mvhd(int nextTrackId) {
+        byte[] mvhd = new byte[100];
+        putInt(mvhd, 12, 44_100);
+        putInt(mvhd, 96, nextTrackId);
+        return box("mvhd", mvhd);
+    }
+
+    private static byte[] tkhd(int trackId) {
+        byte[] tkhd = new byte[84];
+        putInt(tkhd, 0, 0x00000003);
+        putInt(tkhd, 12, trackId);
+        return box("tkhd", tkhd);
+    }
+
+    private static byte[] box(String type, byte[]... parts) {
+        ByteArrayOutputStream box = new ByteArrayOutputStream();
+        byte[] header = new byte[8];
+        int size = 8;
+        for (byte[] part : parts) size += part.length;
+        putInt(header, 0, size);
+        System.arraycopy(type.getBytes(StandardCharsets.ISO_8859_1), 0, header, 4, 4);
+        box.write(header, 0, 8);
+        for (byte[] part : parts) box.write(part, 0, part.length);
+        return box.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) out.write(part, 0, part.length);
+        return out.toByteArray();
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+}
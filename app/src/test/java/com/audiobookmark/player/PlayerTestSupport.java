@@ -0,0 +1,157 @@
+package com.audiobookmark.player;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import androidx.test.core.app.ApplicationProvider;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import org.json.JSONArray;
+import org.robolectric.shadows.ShadowMediaPlayer;
+import org.robolectric.shadows.util.DataSource;
+
+/**
+ * Shared fixtures for the MainActivity tests: fake media registered with the
+ * shadow MediaPlayer, seeded preferences, and time/allocation measurement.
+ *
+ * Preference keys are spelled out here rather than borrowed from MainActivity
+ * on purpose — renaming one would silently drop every user's saved bookmarks,
+ * so that should break a test.
+ */
+final class PlayerTestSupport {
+
+    static final String PREFS_NAME = "AudioBookmarkPrefs";
+    static final String PREF_SELECTED_ACCOUNT = "selected_account";
+    static final String PREF_FILE_URI = "file_uri";
+    static final String PREF_FILE_NAME = "file_name";
+    static final String PREF_POSITION = "playback_position";
+    static final String PREF_BOOKMARKS = "bookmarks_json";
+    static final String PREF_SHARED_BOOKMARKS = "shared_bookmarks_json";
+    static final String PREF_OFFLOAD = "offload_playback";
+    static final String COVERAGE_PREFS_NAME = "AudioBookmarkCoverage";
+
+    static final int DEFAULT_DURATION_MS = 10 * 60 * 60 * 1000; // 10 hour book
+
+    private PlayerTestSupport() {}
+
+    static Context context() {
+        return ApplicationProvider.getApplicationContext();
+    }
+
+    static SharedPreferences prefs() {
+        return context().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /** Content URI whose last path segment gives the display name (no provider in tests). */
+    static Uri bookUri(String fileName) {
+        return Uri.parse("content://com.audiobookmark.test/books/" + fileName);
+    }
+
+    /** Make the shadow MediaPlayer accept this URI with the given duration. */
+    static Uri registerMedia(String fileName, int durationMs) {
+        Uri uri = bookUri(fileName);
+        ShadowMediaPlayer.addMediaInfo(DataSource.toDataSource(context(), uri),
+                new ShadowMediaPlayer.MediaInfo(durationMs, 0));
+        return uri;
+    }
+
+    static Uri registerMedia(String fileName) {
+        return registerMedia(fileName, DEFAULT_DURATION_MS);
+    }
+
+    /** Make the shadow MediaPlayer fail as if the file had been deleted. */
+    static Uri registerMissingMedia(String fileName) {
+        Uri uri = bookUri(fileName);
+        ShadowMediaPlayer.addException(DataSource.toDataSource(context(), uri),
+                new IOException("File not found"));
+        return uri;
+    }
+
+    static Intent viewIntent(Uri uri) {
+        Intent intent = new Intent(context(), MainActivity.class);
+        intent.setAction(Intent.ACTION_VIEW);
+        intent.setDataAndType(uri, "audio/mpeg");
+        return intent;
+    }
+
+    /** Bookmarks spread evenly over the book, in insertion order. */
+    static int[] bookmarks(int count, int durationMs) {
+        int[] result = new int[count];
+        int step = Math.max(1, durationMs / (count + 1));
+        for (int i = 0; i < count; i++) {
+            result[i] = (i + 1) * step;
+        }
+        return result;
+    }
+
+    /** Seed preferences as if a previous session had saved this state. */
+    static void seedState(Uri uri, String fileName, int positionMs, int[] bookmarks, int sharedCount) {
+        JSONArray bookmarksJson = new JSONArray();
+        for (int bookmark : bookmarks) {
+            bookmarksJson.put(bookmark);
+        }
+        JSONArray sharedJson = new JSONArray();
+        for (int i = 0; i < sharedCount; i++) {
+            sharedJson.put(i);
+        }
+        prefs().edit()
+                .putString(PREF_FILE_URI, uri.toString())
+                .putString(PREF_FILE_NAME, fileName)
+                .putInt(PREF_POSITION, positionMs)
+                .putString(PREF_BOOKMARKS, bookmarksJson.toString())
+                .putString(PREF_SHARED_BOOKMARKS, sharedJson.toString())
+                .commit();
+    }
+
+    static void seedAccount(String account) {
+        prefs().edit().putString(PREF_SELECTED_ACCOUNT, account).commit();
+    }
+
+    static void seedOffloadEnabled(boolean enabled) {
+        prefs().edit().putBoolean(PREF_OFFLOAD, enabled).commit();
+    }
+
+    /** Seed one heard range for this file, as saved by a previous session. */
+    static void seedCoverage(Uri uri, int startMs, int endMs) {
+        context().getSharedPreferences(COVERAGE_PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putString(uri.toString(), "[" + startMs + "," + endMs + "]")
+                .commit();
+    }
+
+    // --- Budgets ---
+
+    /** Best wall time over several runs after warming up, in milliseconds. */
+    static long bestTimeMillis(Runnable action, int warmups, int runs) {
+        for (int i = 0; i < warmups; i++) {
+            action.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            action.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1_000_000L;
+    }
+
+    /**
+     * Bytes allocated by the current thread while running the action once, or
+     * -1 if the JVM does not expose per-thread allocation counters.
+     */
+    static long allocatedBytes(Runnable action) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        action.run();
+        return threads.getThreadAllocatedBytes(threadId) - before;
+    }
+}